@@ -0,0 +1,124 @@
+/*
+ * Copyright 2015 Anton Tananaev (anton.tananaev@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.client;
+
+/**
+ * Picks the number of positions per request from the measured round trip time, throughput and
+ * failure rate. The size grows while requests finish well within the target time and shrinks to
+ * what the link carries in that time when they do not. Failures halve it.
+ */
+public class AdaptiveBatchSize {
+
+    public static final long DEFAULT_TARGET_TIME = 2000;
+
+    // weight of the latest sample in the moving averages
+    private static final double SMOOTHING = 0.25;
+    // no growth while more requests than this fail
+    private static final double MAX_FAILURE_RATE = 0.2;
+
+    private final int minSize;
+    private final int maxSize;
+    private final long targetTime;
+
+    private int size;
+
+    private double roundTripTime;
+    private double throughput;
+    private double bytesPerPosition;
+    private double failureRate;
+    private boolean measured;
+
+    public AdaptiveBatchSize(int minSize, int maxSize) {
+        this(minSize, maxSize, DEFAULT_TARGET_TIME);
+    }
+
+    /**
+     * @param targetTime request time in milliseconds the size is tuned for
+     */
+    public AdaptiveBatchSize(int minSize, int maxSize, long targetTime) {
+        this.minSize = Math.max(1, minSize);
+        this.maxSize = Math.max(this.minSize, maxSize);
+        this.targetTime = targetTime;
+        size = this.minSize;
+    }
+
+    public synchronized int getSize() {
+        return size;
+    }
+
+    /**
+     * Smoothed round trip time in milliseconds.
+     */
+    public synchronized double getRoundTripTime() {
+        return roundTripTime;
+    }
+
+    /**
+     * Smoothed throughput in bytes per second.
+     */
+    public synchronized double getThroughput() {
+        return throughput;
+    }
+
+    public synchronized double getFailureRate() {
+        return failureRate;
+    }
+
+    private static double average(double average, double sample) {
+        return average + SMOOTHING * (sample - average);
+    }
+
+    private void setSize(double size) {
+        this.size = (int) Math.max(minSize, Math.min(maxSize, size));
+    }
+
+    /**
+     * @param count positions in the request
+     * @param bytes request size
+     * @param time request time in milliseconds
+     */
+    public synchronized void onSuccess(int count, int bytes, long time) {
+        time = Math.max(1, time);
+        if (measured) {
+            roundTripTime = average(roundTripTime, time);
+            throughput = average(throughput, bytes * 1000.0 / time);
+            bytesPerPosition = average(bytesPerPosition, (double) bytes / count);
+        } else {
+            roundTripTime = time;
+            throughput = bytes * 1000.0 / time;
+            bytesPerPosition = (double) bytes / count;
+            measured = true;
+        }
+        failureRate = average(failureRate, 0);
+
+        if (time > targetTime) {
+            // latency does not matter here, a request this long is bound by the link speed
+            setSize(Math.min(size, throughput * targetTime / 1000 / bytesPerPosition));
+        } else if (failureRate < MAX_FAILURE_RATE && count * 2 > size) {
+            // only a request close to the current size says something about a larger one
+            setSize(size * Math.min(2.0, (double) targetTime / time));
+        }
+    }
+
+    /**
+     * @param count positions in the failed request
+     */
+    public synchronized void onFailure(int count) {
+        failureRate = average(failureRate, 1);
+        setSize(Math.min(size, count) / 2.0);
+    }
+
+}
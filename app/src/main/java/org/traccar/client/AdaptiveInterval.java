@@ -0,0 +1,147 @@
+/*
+ * Copyright 2015 Anton Tananaev (anton.tananaev@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.client;
+
+import android.location.Location;
+
+/**
+ * Picks the GPS sampling interval from the motion state seen in recent fixes. A state is only
+ * left once the speed is clearly past the boundary, and slowing down has to last a few fixes, so
+ * speeds hovering around a boundary do not make the provider register again and again.
+ */
+public class AdaptiveInterval {
+
+    public enum MotionState {
+
+        STATIONARY(60 * 1000, 0.5),
+        WALKING(15 * 1000, 3),
+        DRIVING(5 * 1000, 22),
+        HIGH_SPEED(2 * 1000, Double.MAX_VALUE);
+
+        private final long interval;
+        // speed in m/s this state ends at
+        private final double maxSpeed;
+
+        MotionState(long interval, double maxSpeed) {
+            this.interval = interval;
+            this.maxSpeed = maxSpeed;
+        }
+
+        public long getInterval() {
+            return interval;
+        }
+
+    }
+
+    // how far past a boundary the speed has to be to change state
+    private static final double MARGIN = 0.15;
+    public static final int DEFAULT_SLOWDOWN_FIXES = 3;
+
+    private final long minInterval;
+    private final int slowdownFixes;
+
+    private MotionState state = MotionState.DRIVING;
+    private MotionState candidate;
+    private int candidateCount;
+    private int changeCount;
+
+    private Location lastLocation;
+
+    public AdaptiveInterval(long minInterval) {
+        this(minInterval, DEFAULT_SLOWDOWN_FIXES);
+    }
+
+    /**
+     * @param minInterval shortest interval in milliseconds, used for any state asking for less
+     * @param slowdownFixes fixes in a row needed to move to a slower state
+     */
+    public AdaptiveInterval(long minInterval, int slowdownFixes) {
+        this.minInterval = minInterval;
+        this.slowdownFixes = slowdownFixes;
+    }
+
+    public MotionState getState() {
+        return state;
+    }
+
+    public long getInterval() {
+        return Math.max(minInterval, state.getInterval());
+    }
+
+    public int getChangeCount() {
+        return changeCount;
+    }
+
+    /**
+     * Speed reported with the fix, or the distance from the previous fix beyond the accuracy
+     * divided by the time between them.
+     */
+    private double getSpeed(Location location) {
+        if (location.hasSpeed()) {
+            return location.getSpeed();
+        }
+        if (lastLocation == null || location.getTime() <= lastLocation.getTime()) {
+            return 0;
+        }
+        double distance = location.distanceTo(lastLocation) - location.getAccuracy();
+        return Math.max(0, distance) * 1000 / (location.getTime() - lastLocation.getTime());
+    }
+
+    private static MotionState classify(MotionState current, double speed) {
+        MotionState[] states = MotionState.values();
+        int index = current.ordinal();
+        while (index < states.length - 1 && speed > states[index].maxSpeed * (1 + MARGIN)) {
+            index += 1;
+        }
+        while (index > 0 && speed < states[index - 1].maxSpeed * (1 - MARGIN)) {
+            index -= 1;
+        }
+        return states[index];
+    }
+
+    /**
+     * @return {@code true} if the interval changed and updates have to be requested again
+     */
+    public boolean update(Location location) {
+        MotionState next = classify(state, getSpeed(location));
+        lastLocation = location;
+        if (next == state) {
+            candidate = null;
+            return false;
+        }
+        // speeding up takes effect at once, a missed start of a trip costs more than a few fixes
+        if (next.ordinal() < state.ordinal()) {
+            // slows down to the fastest of the slower states seen in a row
+            if (candidate == null) {
+                candidate = next;
+                candidateCount = 0;
+            } else if (next.ordinal() > candidate.ordinal()) {
+                candidate = next;
+            }
+            candidateCount += 1;
+            if (candidateCount < slowdownFixes) {
+                return false;
+            }
+            next = candidate;
+        }
+        long interval = getInterval();
+        state = next;
+        candidate = null;
+        changeCount += 1;
+        return getInterval() != interval;
+    }
+
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2015 Anton Tananaev (anton.tananaev@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.client;
+
+import android.net.Uri;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Growable byte buffer for ASCII text. Numbers and URL encoded strings are written straight into
+ * the buffer, so once it has grown to size, formatting allocates nothing.
+ */
+public class AsciiBuffer {
+
+    private static final long[] POWERS_OF_TEN = {
+            1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L };
+
+    private static final byte[] HEX = {
+            '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F' };
+
+    private byte[] data;
+    private int length;
+
+    public AsciiBuffer() {
+        this(256);
+    }
+
+    public AsciiBuffer(int capacity) {
+        data = new byte[capacity];
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public AsciiBuffer reset() {
+        length = 0;
+        return this;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, length + extra));
+        }
+    }
+
+    public AsciiBuffer append(char c) {
+        ensureCapacity(1);
+        data[length++] = (byte) c;
+        return this;
+    }
+
+    public AsciiBuffer append(byte[] bytes, int offset, int count) {
+        ensureCapacity(count);
+        System.arraycopy(bytes, offset, data, length, count);
+        length += count;
+        return this;
+    }
+
+    /**
+     * @param value text made of ASCII characters only
+     */
+    public AsciiBuffer append(String value) {
+        int count = value.length();
+        ensureCapacity(count);
+        for (int i = 0; i < count; i++) {
+            data[length++] = (byte) value.charAt(i);
+        }
+        return this;
+    }
+
+    public AsciiBuffer append(long value) {
+        if (value < 0) {
+            if (value == Long.MIN_VALUE) {
+                return append(String.valueOf(value));
+            }
+            append('-');
+            value = -value;
+        }
+        int digits = 1;
+        for (long rest = value / 10; rest != 0; rest /= 10) {
+            digits += 1;
+        }
+        ensureCapacity(digits);
+        for (int i = length + digits - 1; i >= length; i--) {
+            data[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        length += digits;
+        return this;
+    }
+
+    /**
+     * Appends the value rounded to the given number of decimals, without trailing zeros but with
+     * at least one decimal, so whole numbers look like {@code 12.0}.
+     */
+    public AsciiBuffer append(double value, int decimals) {
+        long scale = POWERS_OF_TEN[decimals];
+        if (Double.isNaN(value) || Double.isInfinite(value) || Math.abs(value) >= Long.MAX_VALUE / scale) {
+            return append(String.valueOf(value));
+        }
+        long scaled = Math.round(Math.abs(value) * scale);
+        if (value < 0 && scaled != 0) {
+            append('-');
+        }
+        append(scaled / scale);
+        append('.');
+        long fraction = scaled % scale;
+        if (fraction == 0) {
+            return append('0');
+        }
+        while (fraction % 10 == 0) {
+            fraction /= 10;
+            decimals -= 1;
+        }
+        ensureCapacity(decimals);
+        for (int i = length + decimals - 1; i >= length; i--) {
+            data[i] = (byte) ('0' + fraction % 10);
+            fraction /= 10;
+        }
+        length += decimals;
+        return this;
+    }
+
+    private static boolean isUnreserved(char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9'
+                || c == '_' || c == '-' || c == '!' || c == '.' || c == '~' || c == '\'' || c == '(' || c == ')' || c == '*';
+    }
+
+    /**
+     * Appends the value encoded like a {@link Uri.Builder} query parameter.
+     */
+    public AsciiBuffer appendEncoded(String value) {
+        if (value == null) {
+            // the same as Uri.Builder, which writes a missing value as null
+            return append("null");
+        }
+        int count = value.length();
+        for (int i = 0; i < count; i++) {
+            if (value.charAt(i) >= 0x80) {
+                // multibyte characters are rare enough to take the allocating path
+                return append(Uri.encode(value));
+            }
+        }
+        ensureCapacity(count * 3);
+        for (int i = 0; i < count; i++) {
+            char c = value.charAt(i);
+            if (isUnreserved(c)) {
+                data[length++] = (byte) c;
+            } else {
+                data[length++] = '%';
+                data[length++] = HEX[c >> 4];
+                data[length++] = HEX[c & 0xF];
+            }
+        }
+        return this;
+    }
+
+    public void writeTo(OutputStream outputStream) throws IOException {
+        outputStream.write(data, 0, length);
+    }
+
+    @Override
+    public String toString() {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) data[i];
+        }
+        return new String(chars);
+    }
+
+}
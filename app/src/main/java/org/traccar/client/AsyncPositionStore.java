@@ -0,0 +1,278 @@
+/*
+ * Copyright 2015 Anton Tananaev (anton.tananaev@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.client;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs {@link PositionStore} operations on a dedicated worker thread. Results are delivered on the
+ * looper of the thread that submitted the operation, or on the main thread if it has no looper.
+ */
+public class AsyncPositionStore {
+
+    private static final String TAG = AsyncPositionStore.class.getSimpleName();
+
+    // buffered inserts are flushed when no operations were submitted for this long
+    private static final long IDLE_FLUSH_DELAY = 30 * 1000;
+
+    public interface StoreHandler<T> {
+        void onComplete(boolean success, T result);
+    }
+
+    private abstract class StoreTask<T> implements Runnable {
+
+        private final StoreHandler<T> handler;
+        private final Handler callbackHandler;
+        private final Object key;
+        private final boolean write;
+        private final boolean durable;
+
+        private boolean success;
+        private T result;
+
+        /**
+         * @param key tasks with equal keys waiting in the queue are executed only once
+         * @param write task modifies the store and may leave buffered data behind
+         * @param durable task still runs if it is queued when the store closes
+         */
+        public StoreTask(StoreHandler<T> handler, Object key, boolean write, boolean durable) {
+            this.handler = handler;
+            this.key = key;
+            this.write = write;
+            this.durable = durable;
+            callbackHandler = getCallbackHandler();
+        }
+
+        protected abstract T executeMethod();
+
+        private void execute() {
+            try {
+                result = executeMethod();
+                success = true;
+            } catch (RuntimeException error) {
+                Log.w(TAG, error);
+                success = false;
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void complete(StoreTask<?> source) {
+            success = source.success;
+            result = (T) source.result;
+            if (handler != null) {
+                callbackHandler.post(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            if (!closed) {
+                handler.onComplete(success, result);
+            }
+        }
+    }
+
+    private final PositionStore store;
+    private final ConcurrentLinkedQueue<StoreTask<?>> queue = new ConcurrentLinkedQueue<>();
+    private final Thread worker;
+    private volatile boolean closing;
+    private volatile boolean closed;
+
+    private volatile Handler lastCallbackHandler;
+
+    public AsyncPositionStore(PositionStore store) {
+        this.store = store;
+        worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                processTasks();
+            }
+        }, TAG);
+        worker.start();
+    }
+
+    private Handler getCallbackHandler() {
+        Looper looper = Looper.myLooper();
+        if (looper == null) {
+            looper = Looper.getMainLooper();
+        }
+        Handler handler = lastCallbackHandler;
+        if (handler == null || handler.getLooper() != looper) {
+            handler = new Handler(looper);
+            lastCallbackHandler = handler;
+        }
+        return handler;
+    }
+
+    /**
+     * @return {@code false} if the store is closing and the task was not queued
+     */
+    private boolean submit(StoreTask<?> task) {
+        // a task is either queued before closing is set, so the worker drains it, or not at all
+        synchronized (queue) {
+            if (closing) {
+                return false;
+            }
+            queue.offer(task);
+        }
+        LockSupport.unpark(worker);
+        return true;
+    }
+
+    private void processTasks() {
+        List<StoreTask<?>> coalesced = new ArrayList<>();
+        long lastWriteTime = 0;
+        boolean dirty = false;
+        while (true) {
+            StoreTask<?> task = queue.poll();
+            if (task != null) {
+                if (closing && !task.durable) {
+                    continue;
+                }
+                if (task.key != null) {
+                    Iterator<StoreTask<?>> iterator = queue.iterator();
+                    while (iterator.hasNext()) {
+                        StoreTask<?> other = iterator.next();
+                        if (task.key.equals(other.key) && queue.remove(other)) {
+                            coalesced.add(other);
+                        }
+                    }
+                }
+                synchronized (store) {
+                    task.execute();
+                }
+                task.complete(task);
+                for (StoreTask<?> other : coalesced) {
+                    other.complete(task);
+                }
+                coalesced.clear();
+                if (task.write) {
+                    dirty = true;
+                    lastWriteTime = System.currentTimeMillis();
+                }
+            } else if (closing) {
+                // closing is only set under the queue lock, whatever was queued before is visible now
+                if (queue.isEmpty()) {
+                    break;
+                }
+            } else if (dirty) {
+                long delay = lastWriteTime + IDLE_FLUSH_DELAY - System.currentTimeMillis();
+                if (delay > 0) {
+                    LockSupport.parkNanos(this, delay * 1000000);
+                } else {
+                    synchronized (store) {
+                        try {
+                            store.flush();
+                        } catch (RuntimeException error) {
+                            Log.w(TAG, error);
+                        }
+                    }
+                    dirty = false;
+                }
+            } else {
+                LockSupport.park(this);
+            }
+        }
+        synchronized (store) {
+            try {
+                store.flush();
+            } catch (RuntimeException error) {
+                Log.w(TAG, error);
+            }
+            store.close();
+        }
+    }
+
+    /**
+     * @return {@code false} if the store is already closing, the position is not stored
+     */
+    public boolean insertPositionAsync(final Position position, StoreHandler<Void> handler) {
+        return submit(new StoreTask<Void>(handler, null, true, true) {
+            @Override
+            protected Void executeMethod() {
+                store.insertPosition(position);
+                return null;
+            }
+        });
+    }
+
+    public void selectPositionAsync(StoreHandler<Position> handler) {
+        submit(new StoreTask<Position>(handler, "selectPosition", false, false) {
+            @Override
+            protected Position executeMethod() {
+                return store.selectPosition();
+            }
+        });
+    }
+
+    public void leasePositionsAsync(
+            final int limit, final PositionBatch batch, StoreHandler<PositionBatch> handler) {
+        // leases do not outlive the store, there is no point in taking one while closing
+        submit(new StoreTask<PositionBatch>(handler, null, true, false) {
+            @Override
+            protected PositionBatch executeMethod() {
+                store.leasePositions(limit, batch);
+                return batch;
+            }
+        });
+    }
+
+    public void releasePositionsAsync(final PositionBatch batch, StoreHandler<Void> handler) {
+        submit(new StoreTask<Void>(handler, null, true, true) {
+            @Override
+            protected Void executeMethod() {
+                store.releasePositions(batch);
+                return null;
+            }
+        });
+    }
+
+    public void deletePositionsAsync(final PositionBatch batch, StoreHandler<Void> handler) {
+        submit(new StoreTask<Void>(handler, null, true, true) {
+            @Override
+            protected Void executeMethod() {
+                store.deletePositions(batch);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Runs the writes still queued, then flushes and closes the store on the worker thread and
+     * waits for it. Queued reads and leases are dropped, no handlers are called any more.
+     */
+    public void close() {
+        synchronized (queue) {
+            closing = true;
+        }
+        LockSupport.unpark(worker);
+        try {
+            worker.join();
+        } catch (InterruptedException error) {
+            Log.w(TAG, error);
+        }
+        closed = true;
+    }
+
+}
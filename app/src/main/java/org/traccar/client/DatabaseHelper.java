@@ -15,164 +15,339 @@
  */
 package org.traccar.client;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
-import android.os.AsyncTask;
-import android.text.TextUtils;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
 
+import java.util.ArrayList;
 import java.util.Date;
-import java.util.LinkedList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
-public class DatabaseHelper extends SQLiteOpenHelper {
+public class DatabaseHelper extends SQLiteOpenHelper implements PositionStore {
 
-    public static final int DATABASE_VERSION = 1;
+    public static final int DATABASE_VERSION = 3;
     public static final String DATABASE_NAME = "traccar.db";
 
-    public interface DatabaseHandler<T> {
-        void onComplete(boolean success, T result);
-    }
-
-    private static abstract class DatabaseAsyncTask<T> extends AsyncTask<Void, Void, T> {
-
-        private DatabaseHandler<T> handler;
-        private RuntimeException error;
-
-        public DatabaseAsyncTask(DatabaseHandler<T> handler) {
-            this.handler = handler;
-        }
-
-        @Override
-        protected T doInBackground(Void... params) {
-            try {
-                return executeMethod();
-            } catch (RuntimeException error) {
-                this.error = error;
-                return null;
-            }
-        }
-
-        protected abstract T executeMethod();
-
-        @Override
-        protected void onPostExecute(T result) {
-            handler.onComplete(error == null, result);
+    private static final String TAG = DatabaseHelper.class.getSimpleName();
+
+    // Positions are buffered and committed together to avoid a transaction per row,
+    // AsyncPositionStore also flushes the buffer once the store is idle
+    private static final int WRITE_BUFFER_SIZE = 20;
+    private static final long WRITE_BUFFER_AGE = 30 * 1000;
+
+    public static final int DEFAULT_MAX_POSITIONS = 100000;
+    public static final long DEFAULT_MAX_BYTES = 10 * 1024 * 1024;
+
+    // Eviction brings the store this far below the budget so it does not run on every flush
+    private static final double EVICTION_TARGET = 0.9;
+
+    /**
+     * SQLite tuning, all profiles use write-ahead logging. Cache size and checkpoint interval are in pages.
+     */
+    public enum Profile {
+        // every commit is synced, small write-ahead log
+        DURABLE("FULL", 500, 100),
+        // commits are synced at checkpoints only, a crash can lose the last transactions but never corrupts the file
+        BALANCED("NORMAL", 1000, 1000),
+        // nothing is synced, for devices where losing recent positions on power loss is acceptable
+        FAST("OFF", 2000, 4000);
+
+        private final String synchronous;
+        private final int cacheSize;
+        private final int autoCheckpoint;
+
+        Profile(String synchronous, int cacheSize, int autoCheckpoint) {
+            this.synchronous = synchronous;
+            this.cacheSize = cacheSize;
+            this.autoCheckpoint = autoCheckpoint;
         }
     }
 
+    private final Profile profile;
+
     private SQLiteDatabase db;
+    private SQLiteStatement insertStatement;
+    private SQLiteStatement insertDeviceStatement;
+    private SQLiteStatement selectDeviceStatement;
+    private final Map<String, Long> devices = new HashMap<>();
+
+    private int maxPositions = DEFAULT_MAX_POSITIONS;
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    private EvictionPolicy evictionPolicy = new DownsamplingEvictionPolicy(2);
+    private SQLiteStatement deleteStatement;
+    private SQLiteStatement deleteRangeStatement;
+    private SQLiteStatement leaseStatement;
+    private SQLiteStatement releaseStatement;
+    private long positionCount;
+
+    private final List<Position> writeBuffer = new ArrayList<>();
+    private long writeBufferTime;
 
     public DatabaseHelper(Context context) {
+        this(context, Profile.BALANCED);
+    }
+
+    public DatabaseHelper(Context context, Profile profile) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this.profile = profile;
         db = getWritableDatabase();
+        insertStatement = db.compileStatement("INSERT INTO position (" +
+                "device, time, latitude, longitude, horizontalAccuracy, altitude, speed, course, battery) " +
+                "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        insertDeviceStatement = db.compileStatement("INSERT OR IGNORE INTO device (deviceId) VALUES (?)");
+        selectDeviceStatement = db.compileStatement("SELECT id FROM device WHERE deviceId = ?");
+        deleteStatement = db.compileStatement("DELETE FROM position WHERE id = ?");
+        deleteRangeStatement = db.compileStatement("DELETE FROM position WHERE id BETWEEN ? AND ?");
+        leaseStatement = db.compileStatement("UPDATE position SET lease = 1 WHERE id BETWEEN ? AND ?");
+        releaseStatement = db.compileStatement("UPDATE position SET lease = 0 WHERE id BETWEEN ? AND ?");
+        // leases taken by a previous process have expired with it
+        db.execSQL("UPDATE position SET lease = 0 WHERE lease <> 0");
+        positionCount = DatabaseUtils.queryNumEntries(db, "position");
+    }
+
+    public synchronized void setStorageBudget(int maxPositions, long maxBytes) {
+        this.maxPositions = maxPositions;
+        this.maxBytes = maxBytes;
+    }
+
+    public synchronized void setEvictionPolicy(EvictionPolicy evictionPolicy) {
+        this.evictionPolicy = evictionPolicy;
     }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE device (" +
+                "id INTEGER PRIMARY KEY," +
+                "deviceId TEXT UNIQUE)");
+        createPositionTable(db);
+    }
+
+    // Values are stored as fixed point integers, see PositionEncoding
+    private static void createPositionTable(SQLiteDatabase db) {
         db.execSQL("CREATE TABLE position (" +
                 "id INTEGER PRIMARY KEY AUTOINCREMENT," +
-                "deviceId TEXT," +
+                "device INTEGER," +
                 "time INTEGER," +
-                "latitude REAL," +
-                "longitude REAL," +
-                "horizontalAccuracy REAL," +
-                "altitude REAL," +
-                "speed REAL," +
-                "course REAL," +
-                "battery REAL)");
+                "latitude INTEGER," +
+                "longitude INTEGER," +
+                "horizontalAccuracy INTEGER," +
+                "altitude INTEGER," +
+                "speed INTEGER," +
+                "course INTEGER," +
+                "battery INTEGER," +
+                "lease INTEGER NOT NULL DEFAULT 0)");
+    }
+
+    // Pragmas that return a row have to go through rawQuery
+    private static void pragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery("PRAGMA " + pragma, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (!db.isReadOnly()) {
+            db.enableWriteAheadLogging();
+        }
+        pragma(db, "synchronous = " + profile.synchronous);
+        pragma(db, "cache_size = " + profile.cacheSize);
+        pragma(db, "wal_autocheckpoint = " + profile.autoCheckpoint);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL("DROP TABLE IF EXISTS position;");
-        onCreate(db);
-    }
-
-    public void insertPosition(Position position) {
-        ContentValues values = new ContentValues();
-        values.put("deviceId", position.getDeviceId());
-        values.put("time", position.getTime().getTime());
-        values.put("latitude", position.getLatitude());
-        values.put("longitude", position.getLongitude());
-        values.put("horizontalAccuracy", position.getHorizontalAccuracy());
-        values.put("altitude", position.getAltitude());
-        values.put("speed", position.getSpeed());
-        values.put("course", position.getCourse());
-        values.put("battery", position.getBattery());
-
-        db.insertOrThrow("position", null, values);
-    }
-
-    public void insertPositionAsync(final Position position, DatabaseHandler<Void> handler) {
-        new DatabaseAsyncTask<Void>(handler) {
-            @Override
-            protected Void executeMethod() {
-                insertPosition(position);
-                return null;
-            }
-        }.execute();
+        if (oldVersion < 2) {
+            db.execSQL("CREATE TABLE device (" +
+                    "id INTEGER PRIMARY KEY," +
+                    "deviceId TEXT UNIQUE)");
+            db.execSQL("INSERT INTO device (deviceId) " +
+                    "SELECT DISTINCT deviceId FROM position WHERE deviceId IS NOT NULL");
+            db.execSQL("ALTER TABLE position RENAME TO position_v1");
+            createPositionTable(db);
+            db.execSQL("INSERT INTO position (" +
+                    "id, device, time, latitude, longitude, horizontalAccuracy, altitude, speed, course, battery) " +
+                    "SELECT p.id, d.id, p.time," +
+                    "CAST(ROUND(p.latitude * 10000000) AS INTEGER)," +
+                    "CAST(ROUND(p.longitude * 10000000) AS INTEGER)," +
+                    "MIN(MAX(CAST(ROUND(p.horizontalAccuracy * 10) AS INTEGER), 0), 65535)," +
+                    "CAST(ROUND(p.altitude * 10) AS INTEGER)," +
+                    "MIN(MAX(CAST(ROUND(p.speed * 10) AS INTEGER), 0), 65535)," +
+                    "(CAST(ROUND(p.course * 10) AS INTEGER) % 3600 + 3600) % 3600," +
+                    "MIN(MAX(CAST(ROUND(p.battery * 10) AS INTEGER), 0), 1000) " +
+                    "FROM position_v1 p LEFT JOIN device d ON d.deviceId = p.deviceId");
+            db.execSQL("DROP TABLE position_v1");
+        } else if (oldVersion < 3) {
+            db.execSQL("ALTER TABLE position ADD COLUMN lease INTEGER NOT NULL DEFAULT 0");
+        }
     }
 
-    public Position selectPosition() {
-        Position position = new Position();
+    @Override
+    public synchronized void insertPosition(Position position) {
+        if (writeBuffer.isEmpty()) {
+            writeBufferTime = System.currentTimeMillis();
+        }
+        writeBuffer.add(position);
+        if (writeBuffer.size() >= WRITE_BUFFER_SIZE
+                || System.currentTimeMillis() - writeBufferTime >= WRITE_BUFFER_AGE) {
+            flush();
+        }
+    }
 
-        Cursor cursor = db.rawQuery("SELECT * FROM position ORDER BY id DESC LIMIT 1", null);
+    @Override
+    public synchronized void flush() {
+        if (writeBuffer.isEmpty()) {
+            return;
+        }
+        db.beginTransaction();
         try {
-            if (cursor.getCount() > 0) {
+            for (Position position : writeBuffer) {
+                bindPosition(insertStatement, position);
+                insertStatement.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        positionCount += writeBuffer.size();
+        writeBuffer.clear();
+        evict();
+    }
 
-                cursor.moveToFirst();
+    private long getUsedBytes() {
+        long pages = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null)
+                - DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+        return pages * DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+    }
 
-                position.setId(cursor.getLong(cursor.getColumnIndex("id")));
-                position.setDeviceId(cursor.getString(cursor.getColumnIndex("deviceId")));
-                position.setTime(new Date(cursor.getLong(cursor.getColumnIndex("time"))));
-                position.setLatitude(cursor.getDouble(cursor.getColumnIndex("latitude")));
-                position.setLongitude(cursor.getDouble(cursor.getColumnIndex("longitude")));
-                position.setHorizontalAccuracy(cursor.getDouble(cursor.getColumnIndex("horizontalAccuracy")));
-                position.setAltitude(cursor.getDouble(cursor.getColumnIndex("altitude")));
-                position.setSpeed(cursor.getDouble(cursor.getColumnIndex("speed")));
-                position.setCourse(cursor.getDouble(cursor.getColumnIndex("course")));
-                position.setBattery(cursor.getDouble(cursor.getColumnIndex("battery")));
+    private void evict() {
+        long excess = 0;
+        if (positionCount > maxPositions) {
+            excess = positionCount - (long) (maxPositions * EVICTION_TARGET);
+        }
+        long usedBytes = getUsedBytes();
+        if (usedBytes > maxBytes && positionCount > 0) {
+            long rowBytes = Math.max(1, usedBytes / positionCount);
+            excess = Math.max(excess, (usedBytes - (long) (maxBytes * EVICTION_TARGET)) / rowBytes);
+        }
+        excess = Math.min(excess, positionCount);
+        if (excess <= 0) {
+            return;
+        }
 
-            } else {
-                return null;
+        // positions in flight are never evicted, their acknowledgement would fail otherwise
+        PositionBatch positions = new PositionBatch();
+        Cursor cursor = db.rawQuery("SELECT " + POSITION_COLUMNS + " FROM " + POSITION_TABLES +
+                " WHERE lease = 0 ORDER BY position.id LIMIT ?",
+                new String[] { String.valueOf(evictionPolicy.getWindow((int) excess)) });
+        readPositions(cursor, positions, false);
+        List<Long> evicted = new ArrayList<>();
+        evictionPolicy.evict(positions, (int) excess, evicted);
+
+        long deleted = 0;
+        db.beginTransaction();
+        try {
+            for (long id : evicted) {
+                deleteStatement.bindLong(1, id);
+                deleted += deleteStatement.executeUpdateDelete();
+            }
+            if (deleted < excess) {
+                deleted += db.delete("position", "id IN (SELECT id FROM position WHERE lease = 0 ORDER BY id LIMIT ?)",
+                        new String[] { String.valueOf(excess - deleted) });
             }
+            db.setTransactionSuccessful();
         } finally {
-            cursor.close();
+            db.endTransaction();
         }
+        positionCount -= deleted;
+        Log.i(TAG, "evicted " + deleted + " positions");
+    }
 
-        return position;
+    private long getDevice(String deviceId) {
+        Long device = devices.get(deviceId);
+        if (device == null) {
+            insertDeviceStatement.bindString(1, deviceId);
+            insertDeviceStatement.executeInsert();
+            selectDeviceStatement.bindString(1, deviceId);
+            device = selectDeviceStatement.simpleQueryForLong();
+            devices.put(deviceId, device);
+        }
+        return device;
+    }
+
+    private void bindPosition(SQLiteStatement statement, Position position) {
+        if (position.getDeviceId() != null) {
+            statement.bindLong(1, getDevice(position.getDeviceId()));
+        } else {
+            statement.bindNull(1);
+        }
+        statement.bindLong(2, position.getTime().getTime());
+        statement.bindLong(3, PositionEncoding.encodeCoordinate(position.getLatitude()));
+        statement.bindLong(4, PositionEncoding.encodeCoordinate(position.getLongitude()));
+        statement.bindLong(5, PositionEncoding.encodeAccuracy(position.getHorizontalAccuracy()));
+        statement.bindLong(6, PositionEncoding.encodeAltitude(position.getAltitude()));
+        statement.bindLong(7, PositionEncoding.encodeSpeed(position.getSpeed()));
+        statement.bindLong(8, PositionEncoding.encodeCourse(position.getCourse()));
+        statement.bindLong(9, PositionEncoding.encodeBattery(position.getBattery()));
+    }
+
+    // Column indices below follow the order of this projection
+    private static final String POSITION_COLUMNS = "position.id, deviceId, time, " +
+            "latitude, longitude, horizontalAccuracy, altitude, speed, course, battery, position.device";
+
+    private static final String POSITION_TABLES = "position LEFT JOIN device ON device.id = position.device";
+
+    private static final int COLUMN_ID = 0;
+    private static final int COLUMN_DEVICE_ID = 1;
+    private static final int COLUMN_TIME = 2;
+    private static final int COLUMN_LATITUDE = 3;
+    private static final int COLUMN_LONGITUDE = 4;
+    private static final int COLUMN_HORIZONTAL_ACCURACY = 5;
+    private static final int COLUMN_ALTITUDE = 6;
+    private static final int COLUMN_SPEED = 7;
+    private static final int COLUMN_COURSE = 8;
+    private static final int COLUMN_BATTERY = 9;
+    private static final int COLUMN_DEVICE = 10;
+    private static final int COLUMN_LEASE = 11;
+
+    private static void readPosition(Cursor cursor, Position position) {
+        position.setId(cursor.getLong(COLUMN_ID));
+        position.setDeviceId(cursor.getString(COLUMN_DEVICE_ID));
+        if (position.getTime() != null) {
+            position.getTime().setTime(cursor.getLong(COLUMN_TIME));
+        } else {
+            position.setTime(new Date(cursor.getLong(COLUMN_TIME)));
+        }
+        position.setLatitude(PositionEncoding.decodeCoordinate(cursor.getLong(COLUMN_LATITUDE)));
+        position.setLongitude(PositionEncoding.decodeCoordinate(cursor.getLong(COLUMN_LONGITUDE)));
+        position.setHorizontalAccuracy(PositionEncoding.decodeAccuracy(cursor.getLong(COLUMN_HORIZONTAL_ACCURACY)));
+        position.setAltitude(PositionEncoding.decodeAltitude(cursor.getLong(COLUMN_ALTITUDE)));
+        position.setSpeed(PositionEncoding.decodeSpeed(cursor.getLong(COLUMN_SPEED)));
+        position.setCourse(PositionEncoding.decodeCourse(cursor.getLong(COLUMN_COURSE)));
+        position.setBattery(PositionEncoding.decodeBattery(cursor.getLong(COLUMN_BATTERY)));
     }
 
-    public List<Position> selectPositions(long fetchLimit) {
-        Cursor cursor = db.rawQuery("SELECT * FROM position ORDER BY id DESC LIMIT " + fetchLimit, null);
+    @Override
+    public synchronized Position selectPosition() {
+        flush();
+        Cursor cursor = db.rawQuery("SELECT " + POSITION_COLUMNS + " FROM " + POSITION_TABLES +
+                " ORDER BY position.id DESC LIMIT 1", null);
         try {
-            if (cursor.getCount() > 0) {
-                List<Position> positions = new LinkedList<Position>();
-
-                cursor.moveToFirst();
-
-                while (!cursor.isAfterLast()) {
-                    Position position = new Position();
-                    position.setId(cursor.getLong(cursor.getColumnIndex("id")));
-                    position.setDeviceId(cursor.getString(cursor.getColumnIndex("deviceId")));
-                    position.setTime(new Date(cursor.getLong(cursor.getColumnIndex("time"))));
-                    position.setLatitude(cursor.getDouble(cursor.getColumnIndex("latitude")));
-                    position.setLongitude(cursor.getDouble(cursor.getColumnIndex("longitude")));
-                    position.setHorizontalAccuracy(cursor.getDouble(cursor.getColumnIndex("horizontalAccuracy")));
-                    position.setAltitude(cursor.getDouble(cursor.getColumnIndex("altitude")));
-                    position.setSpeed(cursor.getDouble(cursor.getColumnIndex("speed")));
-                    position.setCourse(cursor.getDouble(cursor.getColumnIndex("course")));
-                    position.setBattery(cursor.getDouble(cursor.getColumnIndex("battery")));
-
-                    positions.add(position);
-
-                    cursor.moveToNext();
-                }
-                return positions;
+            if (cursor.moveToFirst()) {
+                Position position = new Position();
+                readPosition(cursor, position);
+                return position;
             } else {
                 return null;
             }
@@ -181,58 +356,89 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         }
     }
 
-    public void selectPositionAsync(DatabaseHandler<Position> handler) {
-        new DatabaseAsyncTask<Position>(handler) {
-            @Override
-            protected Position executeMethod() {
-                return selectPosition();
+    /**
+     * Replaces batch contents with cursor rows and closes the cursor. With {@code untilLeased}
+     * reading stops at the first leased row, the cursor must then include the lease column.
+     */
+    static int readPositions(Cursor cursor, PositionBatch batch, boolean untilLeased) {
+        batch.clear();
+        try {
+            long lastDevice = -1;
+            String deviceId = null;
+            while (cursor.moveToNext()) {
+                if (untilLeased && cursor.getLong(COLUMN_LEASE) != 0) {
+                    break;
+                }
+                // rows of the same device share one string
+                long device = cursor.isNull(COLUMN_DEVICE) ? 0 : cursor.getLong(COLUMN_DEVICE);
+                if (device != lastDevice) {
+                    deviceId = cursor.getString(COLUMN_DEVICE_ID);
+                    lastDevice = device;
+                }
+                batch.add(cursor.getLong(COLUMN_ID), deviceId, cursor.getLong(COLUMN_TIME),
+                        PositionEncoding.decodeCoordinate(cursor.getLong(COLUMN_LATITUDE)),
+                        PositionEncoding.decodeCoordinate(cursor.getLong(COLUMN_LONGITUDE)),
+                        PositionEncoding.decodeAccuracy(cursor.getLong(COLUMN_HORIZONTAL_ACCURACY)),
+                        PositionEncoding.decodeAltitude(cursor.getLong(COLUMN_ALTITUDE)),
+                        PositionEncoding.decodeSpeed(cursor.getLong(COLUMN_SPEED)),
+                        PositionEncoding.decodeCourse(cursor.getLong(COLUMN_COURSE)),
+                        PositionEncoding.decodeBattery(cursor.getLong(COLUMN_BATTERY)));
             }
-        }.execute();
+        } finally {
+            cursor.close();
+        }
+        return batch.size();
     }
 
-    public void selectPositionsAsync(final long fetchLimit, DatabaseHandler< List<Position> > handler) {
-        new DatabaseAsyncTask< List<Position> >(handler) {
-            @Override
-            protected List<Position> executeMethod() {
-                return selectPositions(fetchLimit);
-            }
-        }.execute();
+    @Override
+    public synchronized int leasePositions(int limit, PositionBatch batch) {
+        flush();
+        // the lease stops at the next leased row, so every lease covers a contiguous id range
+        Cursor cursor = db.rawQuery("SELECT " + POSITION_COLUMNS + ", lease FROM " + POSITION_TABLES +
+                " WHERE position.id >= (SELECT id FROM position WHERE lease = 0 ORDER BY id LIMIT 1)" +
+                " ORDER BY position.id LIMIT ?",
+                new String[] { String.valueOf(limit) });
+        int count = readPositions(cursor, batch, true);
+        if (count > 0) {
+            leaseStatement.bindLong(1, batch.getFirstId());
+            leaseStatement.bindLong(2, batch.getLastId());
+            leaseStatement.executeUpdateDelete();
+        }
+        return count;
     }
 
-    public void deletePosition(long id) {
-        if (db.delete("position", "id = ?", new String[] { String.valueOf(id) }) != 1) {
-            throw new SQLException();
+    @Override
+    public synchronized void releasePositions(PositionBatch batch) {
+        if (!batch.isEmpty()) {
+            releaseStatement.bindLong(1, batch.getFirstId());
+            releaseStatement.bindLong(2, batch.getLastId());
+            releaseStatement.executeUpdateDelete();
         }
     }
 
-    public void deletePositions(List<Position> positions) {
-        List<String> ids = new LinkedList<>();
-        for (Position position: positions) {
-            ids.add(String.valueOf(position.getId()));
-        }
-        if (db.delete("position", "id IN ("+ TextUtils.join(",", ids)+")", null) != 1) {
+    @Override
+    public synchronized void deletePosition(long id) {
+        deleteStatement.bindLong(1, id);
+        int deleted = deleteStatement.executeUpdateDelete();
+        positionCount -= deleted;
+        if (deleted != 1) {
             throw new SQLException();
         }
     }
 
-    public void deletePositionAsync(final long id, DatabaseHandler<Void> handler) {
-        new DatabaseAsyncTask<Void>(handler) {
-            @Override
-            protected Void executeMethod() {
-                deletePosition(id);
-                return null;
-            }
-        }.execute();
-    }
-
-    public void deletePositionsAsync(final List<Position> positions, DatabaseHandler<Void> handler) {
-        new DatabaseAsyncTask<Void>(handler) {
-            @Override
-            protected Void executeMethod() {
-                deletePositions(positions);
-                return null;
-            }
-        }.execute();
+    @Override
+    public synchronized void deletePositions(PositionBatch batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        // Batches are read in id order, so nothing else can be stored between the first and the last id
+        deleteRangeStatement.bindLong(1, batch.getFirstId());
+        deleteRangeStatement.bindLong(2, batch.getLastId());
+        int deleted = deleteRangeStatement.executeUpdateDelete();
+        positionCount -= deleted;
+        if (deleted != batch.size()) {
+            throw new SQLException("Deleted " + deleted + " of " + batch.size() + " positions");
+        }
     }
 
 }
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2015 Anton Tananaev (anton.tananaev@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.client;
+
+/**
+ * Line based delta encoding. Every run of positions from one device starts with an
+ * {@code id=} line and a line of absolute values. Each following line holds the time difference
+ * in milliseconds and the latitude and longitude differences in 1e-6 degrees, followed by the
+ * remaining values only where they changed. The time difference is left empty if it is the same
+ * as on the line before, other unchanged values are left empty and trailing empty values are
+ * dropped:
+ * <pre>
+ * id=123456789012345
+ * 1400000000000,59400000,24700000,5.0,0.0,0.0,40.5,87.0
+ * 5000,112,-94,,12.3,90.0
+ * ,109,-90
+ * </pre>
+ * Field order is time, latitude, longitude, accuracy, speed, bearing, altitude and battery.
+ */
+public class DeltaPayloadFormatter implements PayloadFormatter {
+
+    private static final double COORDINATE_SCALE = 1000000;
+    private static final double VALUE_SCALE = 100;
+
+    private static final int VALUE_COUNT = 5;
+
+    @Override
+    public String getContentType() {
+        return "text/plain";
+    }
+
+    private static double getValue(PositionBatch batch, int index, int field) {
+        switch (field) {
+            case 0:
+                return batch.getHorizontalAccuracy(index);
+            case 1:
+                return batch.getSpeed(index);
+            case 2:
+                return batch.getCourse(index);
+            case 3:
+                return batch.getAltitude(index);
+            default:
+                return batch.getBattery(index);
+        }
+    }
+
+    @Override
+    public void format(AsciiBuffer buffer, PositionBatch batch) {
+        long lastLatitude = 0;
+        long lastLongitude = 0;
+        long lastInterval = -1;
+        for (int i = 0; i < batch.size(); i++) {
+            long latitude = Math.round(batch.getLatitude(i) * COORDINATE_SCALE);
+            long longitude = Math.round(batch.getLongitude(i) * COORDINATE_SCALE);
+            if (i > 0) {
+                buffer.append('\n');
+            }
+            if (i == 0 || !ProtocolFormatter.equals(batch.getDeviceId(i), batch.getDeviceId(i - 1))) {
+                buffer.append("id=").appendEncoded(batch.getDeviceId(i)).append('\n');
+                buffer.append(batch.getTime(i)).append(',').append(latitude).append(',').append(longitude);
+                lastInterval = -1;
+                for (int field = 0; field < VALUE_COUNT; field++) {
+                    buffer.append(',').append(getValue(batch, i, field), ProtocolFormatter.VALUE_DECIMALS);
+                }
+            } else {
+                long interval = batch.getTime(i) - batch.getTime(i - 1);
+                if (interval != lastInterval) {
+                    buffer.append(interval);
+                    lastInterval = interval;
+                }
+                buffer.append(',').append(latitude - lastLatitude)
+                        .append(',').append(longitude - lastLongitude);
+                int skipped = 0;
+                for (int field = 0; field < VALUE_COUNT; field++) {
+                    double value = getValue(batch, i, field);
+                    if (Math.round(value * VALUE_SCALE) == Math.round(getValue(batch, i - 1, field) * VALUE_SCALE)) {
+                        skipped += 1;
+                    } else {
+                        for (; skipped >= 0; skipped--) {
+                            buffer.append(',');
+                        }
+                        skipped = 0;
+                        buffer.append(value, ProtocolFormatter.VALUE_DECIMALS);
+                    }
+                }
+            }
+            lastLatitude = latitude;
+            lastLongitude = longitude;
+        }
+    }
+
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2015 Anton Tananaev (anton.tananaev@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.client;
+
+import java.util.List;
+
+/**
+ * Thins the oldest history by keeping every Nth position. Repeated eviction keeps thinning the
+ * same oldest positions, so older history becomes progressively sparser while recent positions
+ * are kept intact.
+ */
+public class DownsamplingEvictionPolicy implements EvictionPolicy {
+
+    private final int step;
+
+    public DownsamplingEvictionPolicy(int step) {
+        if (step < 2) {
+            throw new IllegalArgumentException("Step should be at least 2");
+        }
+        this.step = step;
+    }
+
+    @Override
+    public int getWindow(int excess) {
+        return excess + (excess + step - 2) / (step - 1);
+    }
+
+    @Override
+    public void evict(PositionBatch positions, int excess, List<Long> evicted) {
+        for (int i = 0; i < positions.size() && evicted.size() < excess; i++) {
+            if (i % step != 0) {
+                evicted.add(positions.getId(i));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2015 Anton Tananaev (anton.tananaev@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.client;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Server with its transport and recent health: smoothed latency and error rate, last success, and
+ * the time an endpoint that failed may be tried again.
+ */
+public class Endpoint {
+
+    // weight of the latest request in the moving averages
+    private static final double SMOOTHING = 0.3;
+    // latency that an endpoint failing every request is ranked like
+    private static final double ERROR_PENALTY = 10 * 1000;
+
+    private final String address;
+    private final int port;
+    private final Transport transport;
+
+    private double latency;
+    private double errorRate;
+    private long lastSuccess = -1;
+    private int consecutiveFailures;
+    private long retryTime;
+
+    public Endpoint(String address, int port, Transport transport) {
+        this.address = address;
+        this.port = port;
+        this.transport = transport;
+    }
+
+    /**
+     * Splits a comma separated list of {@code host} or {@code host:port} entries.
+     */
+    public static List<Pair<String, Integer>> parseAddresses(String addresses, int defaultPort) {
+        List<Pair<String, Integer>> result = new ArrayList<>();
+        for (String entry : addresses.split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+            // IPv6 addresses need brackets to carry a port, a bare one has more than one colon
+            int separator = entry.lastIndexOf(':');
+            boolean hasPort = separator > 0
+                    && (entry.indexOf(':') == separator || entry.charAt(separator - 1) == ']');
+            if (hasPort) {
+                result.add(new Pair<>(entry.substring(0, separator), Integer.parseInt(entry.substring(separator + 1))));
+            } else {
+                result.add(new Pair<>(entry, defaultPort));
+            }
+        }
+        return result;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public Transport getTransport() {
+        return transport;
+    }
+
+    public synchronized double getLatency() {
+        return latency;
+    }
+
+    public synchronized double getErrorRate() {
+        return errorRate;
+    }
+
+    /**
+     * @return time of the last successful request, -1 if there was none
+     */
+    public synchronized long getLastSuccess() {
+        return lastSuccess;
+    }
+
+    public synchronized boolean isHealthy() {
+        return consecutiveFailures == 0;
+    }
+
+    public synchronized long getRetryTime() {
+        return retryTime;
+    }
+
+    /**
+     * Lower is better. Endpoints not measured yet score best, so each gets tried.
+     */
+    public synchronized double getScore() {
+        return latency + errorRate * ERROR_PENALTY;
+    }
+
+    public synchronized void onSuccess(long time, long now) {
+        latency = lastSuccess < 0 ? time : latency + SMOOTHING * (time - latency);
+        errorRate -= SMOOTHING * errorRate;
+        lastSuccess = now;
+        consecutiveFailures = 0;
+    }
+
+    /**
+     * Doubles the pause before the endpoint is probed again with every failure in a row.
+     */
+    public synchronized void onFailure(long now, long baseDelay, long maxDelay) {
+        errorRate += SMOOTHING * (1 - errorRate);
+        consecutiveFailures += 1;
+        retryTime = now + Math.min(maxDelay, baseDelay << Math.min(consecutiveFailures - 1, 30));
+    }
+
+    @Override
+    public String toString() {
+        return address + ":" + port;
+    }
+
+}
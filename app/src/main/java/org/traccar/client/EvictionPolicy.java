@@ -0,0 +1,38 @@
+/*
+ * Copyright 2015 Anton Tananaev (anton.tananaev@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.client;
+
+import java.util.List;
+
+/**
+ * Decides which stored positions are dropped when the store exceeds its storage budget.
+ */
+public interface EvictionPolicy {
+
+    /**
+     * @return number of oldest positions the policy wants to inspect to remove {@code excess} positions
+     */
+    int getWindow(int excess);
+
+    /**
+     * @param positions oldest stored positions ordered by id
+     * @param excess number of positions that have to be removed
+     * @param evicted receives ids of positions to remove, if fewer than {@code excess} ids are
+     *                returned, the oldest remaining positions are removed
+     */
+    void evict(PositionBatch positions, int excess, List<Long> evicted);
+
+}
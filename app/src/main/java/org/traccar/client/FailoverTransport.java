@@ -0,0 +1,150 @@
+/*
+ * Copyright 2015 Anton Tananaev (anton.tananaev@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.client;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Sends to the healthiest of several endpoints and moves on to the next one within the same
+ * attempt if it cannot be reached. An endpoint that failed sits out with a growing pause, then it
+ * gets the next batch as a probe before the healthy ones.
+ */
+public class FailoverTransport implements Transport {
+
+    private static final String TAG = FailoverTransport.class.getSimpleName();
+
+    public static final long DEFAULT_BASE_DELAY = 30 * 1000;
+    public static final long DEFAULT_MAX_DELAY = 30 * 60 * 1000;
+
+    private final List<Endpoint> endpoints;
+    private final long baseDelay;
+    private final long maxDelay;
+    private final RetryPolicy.Clock clock;
+
+    public FailoverTransport(List<Endpoint> endpoints) {
+        this(endpoints, DEFAULT_BASE_DELAY, DEFAULT_MAX_DELAY, RetryPolicy.SYSTEM_CLOCK);
+    }
+
+    public FailoverTransport(List<Endpoint> endpoints, long baseDelay, long maxDelay, RetryPolicy.Clock clock) {
+        this.endpoints = endpoints;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+        this.clock = clock;
+    }
+
+    public List<Endpoint> getEndpoints() {
+        return endpoints;
+    }
+
+    /**
+     * Due probes first, then healthy endpoints by score, then the ones still pausing, soonest first.
+     * Equal endpoints keep the configured order.
+     */
+    private List<Endpoint> order(final long now) {
+        List<Endpoint> result = new ArrayList<>(endpoints);
+        Collections.sort(result, new Comparator<Endpoint>() {
+            private int rank(Endpoint endpoint) {
+                if (endpoint.isHealthy()) {
+                    return 1;
+                }
+                return endpoint.getRetryTime() <= now ? 0 : 2;
+            }
+
+            @Override
+            public int compare(Endpoint a, Endpoint b) {
+                int rankA = rank(a);
+                int rankB = rank(b);
+                if (rankA != rankB) {
+                    return rankA < rankB ? -1 : 1;
+                } else if (rankA == 1) {
+                    return Double.compare(a.getScore(), b.getScore());
+                } else if (rankA == 2) {
+                    return a.getRetryTime() < b.getRetryTime() ? -1 : a.getRetryTime() > b.getRetryTime() ? 1 : 0;
+                }
+                return 0;
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Only an answer from the server means it was reached, another endpoint would not do better.
+     * A reset, an unexpected end of stream or a failed handshake goes on to the next endpoint.
+     */
+    private static boolean isReached(IOException error) {
+        return error instanceof PartialAcknowledgementException
+                || error instanceof HttpStatusException && RetryPolicy.classify(error) != RetryPolicy.Failure.SERVER;
+    }
+
+    private interface Request {
+        int send(Transport transport) throws IOException;
+    }
+
+    @Override
+    public int send(final PositionBatch batch) throws IOException {
+        return send(new Request() {
+            @Override
+            public int send(Transport transport) throws IOException {
+                return transport.send(batch);
+            }
+        });
+    }
+
+    @Override
+    public int sendHeartbeat(final Position position) throws IOException {
+        return send(new Request() {
+            @Override
+            public int send(Transport transport) throws IOException {
+                return transport.sendHeartbeat(position);
+            }
+        });
+    }
+
+    private int send(Request request) throws IOException {
+        IOException lastError = null;
+        for (Endpoint endpoint : order(clock.elapsedRealtime())) {
+            long start = clock.elapsedRealtime();
+            try {
+                int bytes = request.send(endpoint.getTransport());
+                endpoint.onSuccess(clock.elapsedRealtime() - start, clock.elapsedRealtime());
+                return bytes;
+            } catch (IOException error) {
+                if (isReached(error)) {
+                    endpoint.onSuccess(clock.elapsedRealtime() - start, clock.elapsedRealtime());
+                    throw error;
+                }
+                endpoint.onFailure(clock.elapsedRealtime(), baseDelay, maxDelay);
+                Log.w(TAG, endpoint + " failed, trying the next endpoint", error);
+                lastError = error;
+            }
+        }
+        throw lastError != null ? lastError : new IOException("No endpoints");
+    }
+
+    @Override
+    public void close() {
+        for (Endpoint endpoint : endpoints) {
+            endpoint.getTransport().close();
+        }
+    }
+
+}
@@ -0,0 +1,396 @@
+/*
+ * Copyright 2015 Anton Tananaev (anton.tananaev@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.client;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.Charset;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Minimal HTTP/1.1 client that keeps its connection open between requests. Response bodies are
+ * drained through a fixed buffer so the connection can be reused for the next request.
+ */
+public class HttpConnection {
+
+    private static final String TAG = HttpConnection.class.getSimpleName();
+
+    private static final int BUFFER_SIZE = 4 * 1024;
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private final String host;
+    private final int port;
+    private final int timeout;
+
+    private Socket socket;
+    private InputStream inputStream;
+    private OutputStream outputStream;
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int bufferPosition;
+    private int bufferLimit;
+    private final StringBuilder line = new StringBuilder();
+    // longer status, header and chunk size lines mean the response is not HTTP
+    private static final int MAX_LINE_LENGTH = 8 * 1024;
+    private final AsciiBuffer headerBuffer = new AsciiBuffer();
+
+    // start of the latest response body, enough for a short acknowledgement
+    private static final int MAX_RESPONSE_BODY = 512;
+    private final AsciiBuffer responseBody = new AsciiBuffer(MAX_RESPONSE_BODY);
+
+    // set once the request is written and once the first byte of a response arrives; only a failed
+    // write, or a connection closed or reset before any response, means the server dropped an idle
+    // connection and never saw the request
+    private boolean requestWritten;
+    private boolean responseStarted;
+
+    private int connectCount;
+    private int requestCount;
+    private int reuseCount;
+
+    public HttpConnection(String host, int port, int timeout) {
+        this.host = host;
+        this.port = port;
+        this.timeout = timeout;
+    }
+
+    public synchronized int getConnectCount() {
+        return connectCount;
+    }
+
+    public synchronized int getRequestCount() {
+        return requestCount;
+    }
+
+    public synchronized int getReuseCount() {
+        return reuseCount;
+    }
+
+    public int request(String method, String target, String contentType, byte[] body) throws IOException {
+        return request(method, target, contentType, body, false);
+    }
+
+    /**
+     * Sends a request and drains the response.
+     *
+     * @param body request body or {@code null} for none
+     * @param gzip stream the body gzip compressed in chunks
+     * @return response status code
+     */
+    public int request(
+            String method, String target, String contentType, byte[] body, boolean gzip) throws IOException {
+        return request(method, target, contentType, body, body != null ? body.length : 0, gzip);
+    }
+
+    /**
+     * @param length number of bytes from the start of the body array to send
+     */
+    public synchronized int request(String method, String target, String contentType,
+            byte[] body, int length, boolean gzip) throws IOException {
+        boolean reused = socket != null;
+        try {
+            return execute(method, target, contentType, body, length, gzip);
+        } catch (IOException error) {
+            close();
+            if (!reused || !isIdleClose(error)) {
+                throw error;
+            }
+            Log.d(TAG, "idle connection to " + host + ":" + port + " was closed, reconnecting");
+            return execute(method, target, contentType, body, length, gzip);
+        }
+    }
+
+    /**
+     * A read timeout is never an idle close, the server may still be processing the request.
+     */
+    private boolean isIdleClose(IOException error) {
+        return !requestWritten
+                || !responseStarted && (error instanceof EOFException || error instanceof SocketException);
+    }
+
+    public synchronized void close() {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException error) {
+                Log.w(TAG, error);
+            }
+            socket = null;
+            inputStream = null;
+            outputStream = null;
+        }
+    }
+
+    private void connect() throws IOException {
+        socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(timeout);
+            socket.connect(new InetSocketAddress(host, port), timeout);
+            inputStream = socket.getInputStream();
+            outputStream = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+        } catch (IOException error) {
+            close();
+            throw error;
+        }
+        bufferPosition = 0;
+        bufferLimit = 0;
+        connectCount += 1;
+    }
+
+    private int execute(String method, String target, String contentType,
+            byte[] body, int length, boolean gzip) throws IOException {
+        requestWritten = false;
+        responseStarted = false;
+        if (socket == null) {
+            connect();
+        } else {
+            reuseCount += 1;
+            Log.d(TAG, "reusing connection to " + host + ":" + port + " (" + reuseCount + " of " + requestCount + ")");
+        }
+        requestCount += 1;
+
+        AsciiBuffer header = headerBuffer.reset();
+        header.append(method).append(' ').append(target).append(" HTTP/1.1\r\n");
+        header.append("Host: ").append(host).append(':').append(port).append("\r\n");
+        header.append("Connection: keep-alive\r\n");
+        if (body != null) {
+            header.append("Content-Type: ").append(contentType).append("\r\n");
+            if (gzip) {
+                header.append("Content-Encoding: gzip\r\n");
+                header.append("Transfer-Encoding: chunked\r\n");
+            } else {
+                header.append("Content-Length: ").append(length).append("\r\n");
+            }
+        }
+        header.append("\r\n");
+        header.writeTo(outputStream);
+        if (body != null) {
+            if (gzip) {
+                // closing the gzip stream ends the chunked body, the connection stays open
+                OutputStream gzipStream = new GZIPOutputStream(new ChunkedOutputStream(outputStream), BUFFER_SIZE);
+                gzipStream.write(body, 0, length);
+                gzipStream.close();
+            } else {
+                outputStream.write(body, 0, length);
+            }
+        }
+        outputStream.flush();
+        requestWritten = true;
+
+        return readResponse("HEAD".equals(method));
+    }
+
+    /**
+     * @return beginning of the latest response body
+     */
+    public synchronized String getResponseBody() {
+        return responseBody.toString();
+    }
+
+    private int readResponse(boolean head) throws IOException {
+        responseBody.reset();
+        int status;
+        String statusLine;
+        do {
+            statusLine = readLine();
+            if (statusLine.length() < 12 || !statusLine.startsWith("HTTP/") || statusLine.charAt(8) != ' ') {
+                throw new IOException("Invalid response");
+            }
+            status = (int) parseNumber(statusLine.substring(9, 12), 10);
+            if (status == 100) {
+                skipHeaders();
+            }
+        } while (status == 100);
+
+        boolean keepAlive = !statusLine.startsWith("HTTP/1.0");
+        boolean chunked = false;
+        long contentLength = -1;
+        String header;
+        while (!(header = readLine()).isEmpty()) {
+            int separator = header.indexOf(':');
+            if (separator < 0) {
+                continue;
+            }
+            String name = header.substring(0, separator).trim();
+            String value = header.substring(separator + 1).trim();
+            if (name.equalsIgnoreCase("Content-Length")) {
+                contentLength = parseNumber(value, 10);
+            } else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+                chunked = value.equalsIgnoreCase("chunked");
+            } else if (name.equalsIgnoreCase("Connection")) {
+                keepAlive = value.equalsIgnoreCase("keep-alive");
+            }
+        }
+
+        if (head || status == 204 || status == 304) {
+            // no body
+        } else if (chunked) {
+            long size;
+            while ((size = parseNumber(stripExtension(readLine()), 16)) > 0) {
+                skip(size);
+                readLine();
+            }
+            skipHeaders();
+        } else if (contentLength >= 0) {
+            skip(contentLength);
+        } else {
+            // body ends with the connection
+            while (fill()) {
+                keep(bufferLimit - bufferPosition);
+                bufferPosition = bufferLimit;
+            }
+            keepAlive = false;
+        }
+
+        if (!keepAlive) {
+            close();
+        }
+        return status;
+    }
+
+    /**
+     * Writes every block as one chunk, closing writes the last chunk but keeps the underlying stream open.
+     */
+    private static class ChunkedOutputStream extends OutputStream {
+
+        private static final byte[] CRLF = { '\r', '\n' };
+        private static final byte[] LAST_CHUNK = { '0', '\r', '\n', '\r', '\n' };
+
+        private final OutputStream outputStream;
+
+        public ChunkedOutputStream(OutputStream outputStream) {
+            this.outputStream = outputStream;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > 0) {
+                outputStream.write(Integer.toHexString(len).getBytes(ASCII));
+                outputStream.write(CRLF);
+                outputStream.write(b, off, len);
+                outputStream.write(CRLF);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            outputStream.write(LAST_CHUNK);
+        }
+
+    }
+
+    /**
+     * Parses a number the server sent, a malformed one fails the request like any other broken response.
+     */
+    private static long parseNumber(String value, int radix) throws IOException {
+        try {
+            long number = Long.parseLong(value, radix);
+            if (number < 0) {
+                throw new IOException("Invalid response");
+            }
+            return number;
+        } catch (NumberFormatException error) {
+            throw new IOException("Invalid response", error);
+        }
+    }
+
+    private static String stripExtension(String chunkSize) {
+        int separator = chunkSize.indexOf(';');
+        return (separator >= 0 ? chunkSize.substring(0, separator) : chunkSize).trim();
+    }
+
+    private void skipHeaders() throws IOException {
+        while (!readLine().isEmpty()) {
+            // ignored
+        }
+    }
+
+    /**
+     * Refills the buffer if it is empty.
+     *
+     * @return {@code false} at the end of stream
+     */
+    private boolean fill() throws IOException {
+        if (bufferPosition < bufferLimit) {
+            return true;
+        }
+        int read = inputStream.read(buffer, 0, buffer.length);
+        if (read < 0) {
+            return false;
+        }
+        responseStarted = true;
+        bufferPosition = 0;
+        bufferLimit = read;
+        return true;
+    }
+
+    private String readLine() throws IOException {
+        line.setLength(0);
+        while (true) {
+            if (!fill()) {
+                throw new EOFException("Connection closed by server");
+            }
+            while (bufferPosition < bufferLimit) {
+                char c = (char) (buffer[bufferPosition++] & 0xff);
+                if (c == '\n') {
+                    int length = line.length();
+                    if (length > 0 && line.charAt(length - 1) == '\r') {
+                        line.setLength(length - 1);
+                    }
+                    return line.toString();
+                }
+                if (line.length() >= MAX_LINE_LENGTH) {
+                    throw new IOException("Invalid response");
+                }
+                line.append(c);
+            }
+        }
+    }
+
+    private void keep(int count) {
+        int kept = Math.min(count, MAX_RESPONSE_BODY - responseBody.length());
+        if (kept > 0) {
+            responseBody.append(buffer, bufferPosition, kept);
+        }
+    }
+
+    private void skip(long count) throws IOException {
+        while (count > 0) {
+            if (!fill()) {
+                throw new EOFException("Connection closed by server");
+            }
+            int skipped = (int) Math.min(count, bufferLimit - bufferPosition);
+            keep(skipped);
+            bufferPosition += skipped;
+            count -= skipped;
+        }
+    }
+
+}
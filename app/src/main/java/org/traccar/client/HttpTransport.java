@@ -0,0 +1,83 @@
+/*
+ * Copyright 2015 Anton Tananaev (anton.tananaev@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.client;
+
+import java.io.IOException;
+
+/**
+ * Sends batches as HTTP requests through {@link RequestManager}. A batch body is formatted into a
+ * per thread buffer and sent from there.
+ */
+public class HttpTransport implements Transport {
+
+    private final String url;
+    private final boolean compress;
+    private final PayloadFormatter formatter;
+
+    private final ThreadLocal<AsciiBuffer> buffers = new ThreadLocal<AsciiBuffer>() {
+        @Override
+        protected AsciiBuffer initialValue() {
+            return new AsciiBuffer(16 * 1024);
+        }
+    };
+
+    public HttpTransport(String address, int port, boolean compress) {
+        this(address, port, compress, new QueryPayloadFormatter());
+    }
+
+    public HttpTransport(String address, int port, boolean compress, PayloadFormatter formatter) {
+        url = ProtocolFormatter.formatUrl(address, port);
+        this.compress = compress;
+        this.formatter = formatter;
+    }
+
+    @Override
+    public int send(PositionBatch batch) throws IOException {
+        AsciiBuffer buffer = buffers.get().reset();
+        StringBuilder response = new StringBuilder();
+        int bytes;
+        if (batch.size() == 1 && formatter instanceof QueryPayloadFormatter) {
+            // a single position goes in the query of a GET request, as it always did
+            buffer.append(url).append('?');
+            ProtocolFormatter.appendRecord(buffer, batch, 0);
+            bytes = RequestManager.executeRequest(buffer.toString(), null, null, 0, compress, response);
+        } else {
+            formatter.format(buffer, batch);
+            bytes = RequestManager.executeRequest(
+                    url, formatter.getContentType(), buffer.getData(), buffer.length(), compress, response);
+        }
+        // servers without acknowledgements accept the whole batch with a success status
+        int accepted = ProtocolFormatter.parseAcknowledgement(response, batch);
+        if (accepted >= 0 && accepted < batch.size()) {
+            throw new PartialAcknowledgementException(accepted, batch.size());
+        }
+        return bytes;
+    }
+
+    @Override
+    public int sendHeartbeat(Position position) throws IOException {
+        AsciiBuffer buffer = buffers.get().reset();
+        buffer.append(url).append('?');
+        ProtocolFormatter.appendHeartbeat(buffer, position);
+        return RequestManager.executeRequest(buffer.toString(), null, null, 0, compress, new StringBuilder());
+    }
+
+    @Override
+    public void close() {
+        RequestManager.closeConnections();
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2015 Anton Tananaev (anton.tananaev@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.client;
+
+/**
+ * Compact JSON batch. Consecutive positions of a device are grouped, and every position is an
+ * array of time, latitude, longitude, accuracy, speed, bearing, altitude and battery:
+ * <pre>
+ * [{"id":"123456789012345","positions":[[1400000000000,59.4,24.7,5.0,0.0,0.0,40.5,87.0],...]}]
+ * </pre>
+ */
+public class JsonPayloadFormatter implements PayloadFormatter {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    @Override
+    public String getContentType() {
+        return "application/json";
+    }
+
+    // a missing id is written as "null" like the query format does
+    private static void appendString(AsciiBuffer buffer, String value) {
+        if (value == null) {
+            value = "null";
+        }
+        buffer.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                buffer.append('\\').append(c);
+            } else if (c < 0x20 || c >= 0x7F) {
+                buffer.append("\\u").append(HEX[c >> 12]).append(HEX[c >> 8 & 0xF])
+                        .append(HEX[c >> 4 & 0xF]).append(HEX[c & 0xF]);
+            } else {
+                buffer.append(c);
+            }
+        }
+        buffer.append('"');
+    }
+
+    @Override
+    public void format(AsciiBuffer buffer, PositionBatch batch) {
+        buffer.append('[');
+        for (int i = 0; i < batch.size(); i++) {
+            String deviceId = batch.getDeviceId(i);
+            if (i == 0 || !ProtocolFormatter.equals(deviceId, batch.getDeviceId(i - 1))) {
+                if (i > 0) {
+                    buffer.append("]},");
+                }
+                buffer.append("{\"id\":");
+                appendString(buffer, deviceId);
+                buffer.append(",\"positions\":[");
+            } else {
+                buffer.append(',');
+            }
+            buffer.append('[').append(batch.getTime(i))
+                    .append(',').append(batch.getLatitude(i), ProtocolFormatter.COORDINATE_DECIMALS)
+                    .append(',').append(batch.getLongitude(i), ProtocolFormatter.COORDINATE_DECIMALS)
+                    .append(',').append(batch.getHorizontalAccuracy(i), ProtocolFormatter.VALUE_DECIMALS)
+                    .append(',').append(batch.getSpeed(i), ProtocolFormatter.VALUE_DECIMALS)
+                    .append(',').append(batch.getCourse(i), ProtocolFormatter.VALUE_DECIMALS)
+                    .append(',').append(batch.getAltitude(i), ProtocolFormatter.VALUE_DECIMALS)
+                    .append(',').append(batch.getBattery(i), ProtocolFormatter.VALUE_DECIMALS)
+                    .append(']');
+        }
+        if (!batch.isEmpty()) {
+            buffer.append("]}");
+        }
+        buffer.append(']');
+    }
+
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2015 Anton Tananaev (anton.tananaev@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.client;
+
+import android.location.Location;
+
+/**
+ * Constant velocity Kalman filter over east and north offsets in meters. Every fix is replaced by
+ * the smoothed estimate, with the fix accuracy as measurement noise, so GPS jitter no longer trips
+ * the distance threshold. A fix too far from the prediction to be plausible is rejected without
+ * updating the estimate; a few of those in a row mean the device really moved, for example out of
+ * a tunnel, and the filter starts over from the latest fix.
+ */
+public class KalmanFilter implements PositionFilter {
+
+    public static final String NAME = "kalman";
+
+    // acceleration noise, in (m/s^2)^2 per second
+    public static final double DEFAULT_PROCESS_NOISE = 1.0;
+    // squared Mahalanobis distance of the innovation, 2 degrees of freedom at 99.9%
+    public static final double DEFAULT_GATE = 13.8;
+    public static final int DEFAULT_MAX_REJECTED = 3;
+
+    private static final double EARTH_RADIUS = 6371000;
+
+    private final double processNoise;
+    private final double gate;
+    private final int maxRejected;
+
+    private boolean initialized;
+    private double originLatitude;
+    private double originLongitude;
+    private double scale;
+    private long time;
+    private int rejectedCount;
+
+    private final Axis east = new Axis();
+    private final Axis north = new Axis();
+
+    /**
+     * Position and velocity along one axis with their covariance.
+     */
+    private static class Axis {
+
+        private double position;
+        private double velocity;
+        private double p00;
+        private double p01;
+        private double p11;
+
+        Axis copy() {
+            Axis result = new Axis();
+            result.set(this);
+            return result;
+        }
+
+        void set(Axis axis) {
+            position = axis.position;
+            velocity = axis.velocity;
+            p00 = axis.p00;
+            p01 = axis.p01;
+            p11 = axis.p11;
+        }
+
+        void reset(double position, double variance) {
+            this.position = position;
+            velocity = 0;
+            p00 = variance;
+            p01 = 0;
+            // unknown velocity, up to about 30 m/s
+            p11 = 30 * 30;
+        }
+
+        void predict(double dt, double q) {
+            position += velocity * dt;
+            p00 += dt * (2 * p01 + dt * p11) + q * dt * dt * dt / 3;
+            p01 += dt * p11 + q * dt * dt / 2;
+            p11 += q * dt;
+        }
+
+        double innovation(double measurement) {
+            return measurement - position;
+        }
+
+        double innovationVariance(double variance) {
+            return p00 + variance;
+        }
+
+        void update(double measurement, double variance) {
+            double s = p00 + variance;
+            double k0 = p00 / s;
+            double k1 = p01 / s;
+            double y = measurement - position;
+            position += k0 * y;
+            velocity += k1 * y;
+            p11 -= k1 * p01;
+            p01 -= k0 * p01;
+            p00 -= k0 * p00;
+        }
+
+    }
+
+    public KalmanFilter() {
+        this(DEFAULT_PROCESS_NOISE, DEFAULT_GATE, DEFAULT_MAX_REJECTED);
+    }
+
+    public KalmanFilter(double processNoise, double gate, int maxRejected) {
+        this.processNoise = processNoise;
+        this.gate = gate;
+        this.maxRejected = maxRejected;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public Result filter(Location location, Location lastLocation) {
+        double variance = location.getAccuracy() * location.getAccuracy();
+        if (!initialized || rejectedCount >= maxRejected) {
+            reset(location, variance);
+            return Result.PASS;
+        }
+        double dt = (location.getTime() - time) / 1000.0;
+        if (dt < 0) {
+            return Result.REJECT;
+        }
+
+        double x = x(location);
+        double y = y(location);
+        Axis predictedEast = east.copy();
+        Axis predictedNorth = north.copy();
+        predictedEast.predict(dt, processNoise);
+        predictedNorth.predict(dt, processNoise);
+        double innovationEast = predictedEast.innovation(x);
+        double innovationNorth = predictedNorth.innovation(y);
+        double distance = innovationEast * innovationEast / predictedEast.innovationVariance(variance)
+                + innovationNorth * innovationNorth / predictedNorth.innovationVariance(variance);
+        if (distance > gate) {
+            rejectedCount += 1;
+            return Result.REJECT;
+        }
+
+        rejectedCount = 0;
+        time = location.getTime();
+        predictedEast.update(x, variance);
+        predictedNorth.update(y, variance);
+        east.set(predictedEast);
+        north.set(predictedNorth);
+        location.setLatitude(originLatitude + Math.toDegrees(north.position / EARTH_RADIUS));
+        location.setLongitude(originLongitude + Math.toDegrees(east.position / EARTH_RADIUS / scale));
+        return Result.PASS;
+    }
+
+    private void reset(Location location, double variance) {
+        initialized = true;
+        rejectedCount = 0;
+        time = location.getTime();
+        originLatitude = location.getLatitude();
+        originLongitude = location.getLongitude();
+        scale = Math.cos(Math.toRadians(originLatitude));
+        east.reset(0, variance);
+        north.reset(0, variance);
+    }
+
+    private double x(Location location) {
+        return Math.toRadians(location.getLongitude() - originLongitude) * scale * EARTH_RADIUS;
+    }
+
+    private double y(Location location) {
+        return Math.toRadians(location.getLatitude() - originLatitude) * EARTH_RADIUS;
+    }
+
+}
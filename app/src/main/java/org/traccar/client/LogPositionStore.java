@@ -0,0 +1,451 @@
+/*
+ * Copyright 2015 Anton Tananaev (anton.tananaev@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.client;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Append-only position store. Positions are written as fixed size records into segment files and
+ * acknowledged by advancing a persisted read cursor. Segments behind the cursor are removed.
+ * Positions deleted out of order are marked with a flag in their record.
+ */
+public class LogPositionStore implements PositionStore {
+
+    public static final String DIRECTORY_NAME = "positions";
+
+    private static final String CURSOR_FILE = "cursor";
+    private static final String DEVICES_FILE = "devices";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final int SEGMENT_RECORDS = 4096;
+
+    private static final int FLAG_DELETED = 1;
+
+    // flags, device, id, time, latitude, longitude, horizontalAccuracy, altitude, speed, course, battery
+    // encoded as described in PositionEncoding
+    private static final int RECORD_SIZE = 1 + 2 + 8 + 8 + 4 + 4 + 2 + 4 + 2 + 2 + 2;
+
+    private static final int READ_BUFFER_RECORDS = 64;
+
+    private final File directory;
+
+    private final List<String> devices = new ArrayList<>();
+    private final Map<String, Integer> deviceIndex = new HashMap<>();
+    private Writer devicesWriter;
+
+    private final Map<Long, FileChannel> segments = new HashMap<>();
+    private FileChannel cursorChannel;
+
+    private final ByteBuffer recordBuffer = ByteBuffer.allocate(RECORD_SIZE);
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(RECORD_SIZE * READ_BUFFER_RECORDS);
+    private final ByteBuffer flagBuffer = ByteBuffer.allocate(1);
+    private final ByteBuffer cursorBuffer = ByteBuffer.allocate(8);
+
+    // first position that is not acknowledged yet
+    private long readId = 1;
+    // id assigned to the next inserted position
+    private long writeId = 1;
+    // id ranges in flight, first id to last id; kept in memory only, so they expire on reopen
+    private final TreeMap<Long, Long> leases = new TreeMap<>();
+
+    public LogPositionStore(File directory) {
+        this.directory = directory;
+        try {
+            open();
+        } catch (IOException error) {
+            throw new RuntimeException(error);
+        }
+    }
+
+    private void open() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create " + directory);
+        }
+
+        File devicesFile = new File(directory, DEVICES_FILE);
+        if (devicesFile.exists()) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(devicesFile), "UTF-8"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    deviceIndex.put(line, devices.size());
+                    devices.add(line);
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        devicesWriter = new OutputStreamWriter(new FileOutputStream(devicesFile, true), "UTF-8");
+
+        cursorChannel = new RandomAccessFile(new File(directory, CURSOR_FILE), "rw").getChannel();
+        if (cursorChannel.size() >= 8) {
+            cursorBuffer.clear();
+            cursorChannel.read(cursorBuffer, 0);
+            readId = cursorBuffer.getLong(0);
+        }
+
+        long lastSegment = -1;
+        String[] names = directory.list();
+        if (names != null) {
+            for (String name : names) {
+                if (name.endsWith(SEGMENT_SUFFIX)) {
+                    long segment = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                    if (getSegmentEnd(segment) <= readId) {
+                        deleteSegment(segment);
+                    } else {
+                        lastSegment = Math.max(lastSegment, segment);
+                    }
+                }
+            }
+        }
+
+        writeId = readId;
+        if (lastSegment >= 0) {
+            FileChannel channel = getSegment(lastSegment);
+            long records = channel.size() / RECORD_SIZE;
+            // drop partially written record left after a crash
+            channel.truncate(records * RECORD_SIZE);
+            writeId = Math.max(writeId, getSegmentStart(lastSegment) + records);
+        }
+    }
+
+    private static long getSegmentStart(long segment) {
+        return segment * SEGMENT_RECORDS + 1;
+    }
+
+    private static long getSegmentEnd(long segment) {
+        return getSegmentStart(segment + 1);
+    }
+
+    private static long getOffset(long id) {
+        return ((id - 1) % SEGMENT_RECORDS) * RECORD_SIZE;
+    }
+
+    private FileChannel getSegment(long segment) throws IOException {
+        FileChannel channel = segments.get(segment);
+        if (channel == null) {
+            File file = new File(directory, segment + SEGMENT_SUFFIX);
+            channel = new RandomAccessFile(file, "rw").getChannel();
+            segments.put(segment, channel);
+        }
+        return channel;
+    }
+
+    private void deleteSegment(long segment) throws IOException {
+        FileChannel channel = segments.remove(segment);
+        if (channel != null) {
+            channel.close();
+        }
+        File file = new File(directory, segment + SEGMENT_SUFFIX);
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Failed to delete " + file);
+        }
+    }
+
+    private int getDevice(String deviceId) throws IOException {
+        if (deviceId == null) {
+            return -1;
+        }
+        Integer index = deviceIndex.get(deviceId);
+        if (index == null) {
+            if (devices.size() > Short.MAX_VALUE) {
+                throw new IOException("Too many device identifiers");
+            }
+            index = devices.size();
+            devicesWriter.write(deviceId);
+            devicesWriter.write('\n');
+            devicesWriter.flush();
+            deviceIndex.put(deviceId, index);
+            devices.add(deviceId);
+        }
+        return index;
+    }
+
+    private void writeFully(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+        while (buffer.hasRemaining()) {
+            offset += channel.write(buffer, offset);
+        }
+    }
+
+    @Override
+    public synchronized void insertPosition(Position position) {
+        try {
+            long id = writeId;
+            recordBuffer.clear();
+            recordBuffer.put((byte) 0);
+            recordBuffer.putShort((short) getDevice(position.getDeviceId()));
+            recordBuffer.putLong(id);
+            recordBuffer.putLong(position.getTime().getTime());
+            recordBuffer.putInt(PositionEncoding.encodeCoordinate(position.getLatitude()));
+            recordBuffer.putInt(PositionEncoding.encodeCoordinate(position.getLongitude()));
+            recordBuffer.putShort((short) PositionEncoding.encodeAccuracy(position.getHorizontalAccuracy()));
+            recordBuffer.putInt(PositionEncoding.encodeAltitude(position.getAltitude()));
+            recordBuffer.putShort((short) PositionEncoding.encodeSpeed(position.getSpeed()));
+            recordBuffer.putShort((short) PositionEncoding.encodeCourse(position.getCourse()));
+            recordBuffer.putShort((short) PositionEncoding.encodeBattery(position.getBattery()));
+            recordBuffer.flip();
+            writeFully(getSegment((id - 1) / SEGMENT_RECORDS), recordBuffer, getOffset(id));
+            writeId = id + 1;
+        } catch (IOException error) {
+            throw new RuntimeException(error);
+        }
+    }
+
+    @Override
+    public synchronized void flush() {
+        try {
+            for (FileChannel channel : segments.values()) {
+                channel.force(false);
+            }
+            cursorChannel.force(false);
+        } catch (IOException error) {
+            throw new RuntimeException(error);
+        }
+    }
+
+    private void readRecord(ByteBuffer buffer, Position position) {
+        buffer.get();
+        int device = buffer.getShort();
+        position.setDeviceId(device >= 0 ? devices.get(device) : null);
+        position.setId(buffer.getLong());
+        if (position.getTime() != null) {
+            position.getTime().setTime(buffer.getLong());
+        } else {
+            position.setTime(new Date(buffer.getLong()));
+        }
+        position.setLatitude(PositionEncoding.decodeCoordinate(buffer.getInt()));
+        position.setLongitude(PositionEncoding.decodeCoordinate(buffer.getInt()));
+        position.setHorizontalAccuracy(PositionEncoding.decodeAccuracy(buffer.getShort() & 0xFFFF));
+        position.setAltitude(PositionEncoding.decodeAltitude(buffer.getInt()));
+        position.setSpeed(PositionEncoding.decodeSpeed(buffer.getShort() & 0xFFFF));
+        position.setCourse(PositionEncoding.decodeCourse(buffer.getShort()));
+        position.setBattery(PositionEncoding.decodeBattery(buffer.getShort()));
+    }
+
+    private void readRecord(ByteBuffer buffer, PositionBatch batch) {
+        buffer.get();
+        int device = buffer.getShort();
+        batch.add(buffer.getLong(), device >= 0 ? devices.get(device) : null, buffer.getLong(),
+                PositionEncoding.decodeCoordinate(buffer.getInt()),
+                PositionEncoding.decodeCoordinate(buffer.getInt()),
+                PositionEncoding.decodeAccuracy(buffer.getShort() & 0xFFFF),
+                PositionEncoding.decodeAltitude(buffer.getInt()),
+                PositionEncoding.decodeSpeed(buffer.getShort() & 0xFFFF),
+                PositionEncoding.decodeCourse(buffer.getShort()),
+                PositionEncoding.decodeBattery(buffer.getShort()));
+    }
+
+    /**
+     * Reads records starting from {@code id} into the read buffer without crossing a segment boundary.
+     */
+    private int readRecords(long id, int limit) throws IOException {
+        long segment = (id - 1) / SEGMENT_RECORDS;
+        long count = Math.min(Math.min(limit, READ_BUFFER_RECORDS), getSegmentEnd(segment) - id);
+        readBuffer.clear();
+        readBuffer.limit((int) count * RECORD_SIZE);
+        FileChannel channel = getSegment(segment);
+        long offset = getOffset(id);
+        while (readBuffer.hasRemaining()) {
+            int read = channel.read(readBuffer, offset);
+            if (read < 0) {
+                throw new IOException("Unexpected end of segment " + segment);
+            }
+            offset += read;
+        }
+        readBuffer.flip();
+        return (int) count;
+    }
+
+    @Override
+    public synchronized Position selectPosition() {
+        try {
+            for (long id = writeId - 1; id >= readId; id--) {
+                readRecords(id, 1);
+                if ((readBuffer.get(0) & FLAG_DELETED) == 0) {
+                    Position position = new Position();
+                    readRecord(readBuffer, position);
+                    return position;
+                }
+            }
+            return null;
+        } catch (IOException error) {
+            throw new RuntimeException(error);
+        }
+    }
+
+    /**
+     * Replaces the contents of {@code batch} with up to {@code limit} oldest positions with id
+     * greater than {@code afterId}.
+     */
+    private int readPositions(long afterId, int limit, PositionBatch batch) {
+        batch.clear();
+        int count = 0;
+        try {
+            long id = Math.max(afterId + 1, readId);
+            while (count < limit && id < writeId) {
+                int read = readRecords(id, (int) Math.min(limit - count, writeId - id));
+                for (int i = 0; i < read && count < limit; i++) {
+                    readBuffer.position(i * RECORD_SIZE);
+                    if ((readBuffer.get(i * RECORD_SIZE) & FLAG_DELETED) == 0) {
+                        readRecord(readBuffer, batch);
+                        count += 1;
+                    }
+                }
+                id += read;
+            }
+        } catch (IOException error) {
+            throw new RuntimeException(error);
+        }
+        return count;
+    }
+
+    @Override
+    public synchronized int leasePositions(int limit, PositionBatch batch) {
+        long start = readId;
+        for (Map.Entry<Long, Long> lease : leases.entrySet()) {
+            if (lease.getKey() > start) {
+                break;
+            }
+            start = Math.max(start, lease.getValue() + 1);
+        }
+        Long next = leases.ceilingKey(start);
+        long end = next != null ? next : writeId;
+
+        int count = readPositions(start - 1, limit, batch);
+        while (count > 0 && batch.getId(count - 1) >= end) {
+            count -= 1;
+        }
+        batch.truncate(count);
+        if (count > 0) {
+            leases.put(batch.getFirstId(), batch.getLastId());
+        }
+        return count;
+    }
+
+    @Override
+    public synchronized void releasePositions(PositionBatch batch) {
+        if (!batch.isEmpty()) {
+            removeLease(batch);
+        }
+    }
+
+    /**
+     * Takes the batch out of the lease holding it. Deleting the head of a lease leaves the rest leased.
+     */
+    private void removeLease(PositionBatch batch) {
+        Long first = leases.floorKey(batch.getFirstId());
+        if (first != null && leases.get(first) >= batch.getFirstId()) {
+            long last = leases.remove(first);
+            if (first < batch.getFirstId()) {
+                leases.put(first, batch.getFirstId() - 1);
+            }
+            if (last > batch.getLastId()) {
+                leases.put(batch.getLastId() + 1, last);
+            }
+        }
+    }
+
+    private boolean isDeleted(long id) throws IOException {
+        flagBuffer.clear();
+        getSegment((id - 1) / SEGMENT_RECORDS).read(flagBuffer, getOffset(id));
+        return (flagBuffer.get(0) & FLAG_DELETED) != 0;
+    }
+
+    private void markDeleted(long id) throws IOException {
+        if (id < readId || id >= writeId || isDeleted(id)) {
+            throw new IllegalArgumentException("Position " + id + " is not stored");
+        }
+        if (id == readId) {
+            readId += 1;
+        } else {
+            flagBuffer.clear();
+            flagBuffer.put(0, (byte) FLAG_DELETED);
+            writeFully(getSegment((id - 1) / SEGMENT_RECORDS), flagBuffer, getOffset(id));
+        }
+    }
+
+    private void advanceCursor(long previousReadId) throws IOException {
+        while (readId < writeId && isDeleted(readId)) {
+            readId += 1;
+        }
+        if (readId != previousReadId) {
+            cursorBuffer.clear();
+            cursorBuffer.putLong(0, readId);
+            writeFully(cursorChannel, cursorBuffer, 0);
+            for (long segment = (previousReadId - 1) / SEGMENT_RECORDS; getSegmentEnd(segment) <= readId; segment++) {
+                deleteSegment(segment);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void deletePosition(long id) {
+        try {
+            long previousReadId = readId;
+            markDeleted(id);
+            advanceCursor(previousReadId);
+        } catch (IOException error) {
+            throw new RuntimeException(error);
+        }
+    }
+
+    @Override
+    public synchronized void deletePositions(PositionBatch batch) {
+        try {
+            long previousReadId = readId;
+            for (int i = 0; i < batch.size(); i++) {
+                markDeleted(batch.getId(i));
+            }
+            if (!batch.isEmpty()) {
+                removeLease(batch);
+            }
+            advanceCursor(previousReadId);
+        } catch (IOException error) {
+            throw new RuntimeException(error);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            for (FileChannel channel : segments.values()) {
+                channel.close();
+            }
+            segments.clear();
+            cursorChannel.close();
+            devicesWriter.close();
+        } catch (IOException error) {
+            throw new RuntimeException(error);
+        }
+    }
+
+}
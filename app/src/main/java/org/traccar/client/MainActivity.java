@@ -50,14 +50,28 @@ public class MainActivity extends PreferenceActivity implements OnSharedPreferen
     public static final String KEY_PORT = "port";
     public static final String KEY_INTERVAL = "interval";
     public static final String KEY_MIN_INTERVAL = "min_interval";
+    public static final String KEY_ADAPTIVE_INTERVAL = "adaptive_interval";
+    public static final String KEY_DUTY_CYCLE = "duty_cycle";
     public static final String KEY_MIN_ACCURACY = "min_accuracy";
     public static final String KEY_ACCURACY_LEVEL_STEP = "accuracy_level_step";
     public static final String KEY_DISTANCE_THRESHOLD = "distance_threshold";
     public static final String KEY_SPEED_DELTA_THRESHOLD = "speed_delta_threshold";
     public static final String KEY_COURSE_DELTA_THRESHOLD = "course_delta_threshold";
+    public static final String KEY_SIMPLIFY_TOLERANCE = "simplify_tolerance";
+    public static final String KEY_SMOOTHING = "smoothing";
     public static final String KEY_BATCH_REPORT_NUM = "batch_report_num";
     public static final String KEY_REPORT_INTERVAL = "report_interval";
+    public static final String KEY_ADAPTIVE_BATCH = "adaptive_batch";
+    public static final String KEY_MAX_BATCH_SIZE = "max_batch_size";
+    public static final String KEY_COMPRESSION = "compression";
+    public static final String KEY_UPLOAD_WINDOW = "upload_window";
+    public static final String KEY_TRANSPORT = "transport";
+    public static final String KEY_FORMAT = "format";
     public static final String KEY_PROVIDER = "provider";
+    public static final String KEY_STORAGE = "storage";
+    public static final String KEY_MAX_POSITIONS = "max_positions";
+    public static final String KEY_MAX_STORAGE = "max_storage";
+    public static final String KEY_STORAGE_PROFILE = "storage_profile";
     public static final String KEY_STATUS = "status";
     public static final String KEY_SCHEDULE = "schedule";
     public static final String KEY_SAVE_TRAFFIC = "save_traffic";
@@ -125,14 +139,28 @@ public class MainActivity extends PreferenceActivity implements OnSharedPreferen
         preferenceScreen.findPreference(KEY_PORT).setEnabled(enabled);
         preferenceScreen.findPreference(KEY_INTERVAL).setEnabled(enabled);
         preferenceScreen.findPreference(KEY_MIN_INTERVAL).setEnabled(enabled);
+        preferenceScreen.findPreference(KEY_ADAPTIVE_INTERVAL).setEnabled(enabled);
+        preferenceScreen.findPreference(KEY_DUTY_CYCLE).setEnabled(enabled);
         preferenceScreen.findPreference(KEY_MIN_ACCURACY).setEnabled(enabled);
         preferenceScreen.findPreference(KEY_ACCURACY_LEVEL_STEP).setEnabled(enabled);
         preferenceScreen.findPreference(KEY_DISTANCE_THRESHOLD).setEnabled(enabled);
         preferenceScreen.findPreference(KEY_SPEED_DELTA_THRESHOLD).setEnabled(enabled);
         preferenceScreen.findPreference(KEY_COURSE_DELTA_THRESHOLD).setEnabled(enabled);
+        preferenceScreen.findPreference(KEY_SIMPLIFY_TOLERANCE).setEnabled(enabled);
+        preferenceScreen.findPreference(KEY_SMOOTHING).setEnabled(enabled);
         preferenceScreen.findPreference(KEY_BATCH_REPORT_NUM).setEnabled(enabled);
         preferenceScreen.findPreference(KEY_REPORT_INTERVAL).setEnabled(enabled);
+        preferenceScreen.findPreference(KEY_ADAPTIVE_BATCH).setEnabled(enabled);
+        preferenceScreen.findPreference(KEY_MAX_BATCH_SIZE).setEnabled(enabled);
+        preferenceScreen.findPreference(KEY_COMPRESSION).setEnabled(enabled);
+        preferenceScreen.findPreference(KEY_UPLOAD_WINDOW).setEnabled(enabled);
+        preferenceScreen.findPreference(KEY_TRANSPORT).setEnabled(enabled);
+        preferenceScreen.findPreference(KEY_FORMAT).setEnabled(enabled);
         preferenceScreen.findPreference(KEY_PROVIDER).setEnabled(enabled);
+        preferenceScreen.findPreference(KEY_STORAGE).setEnabled(enabled);
+        preferenceScreen.findPreference(KEY_MAX_POSITIONS).setEnabled(enabled);
+        preferenceScreen.findPreference(KEY_MAX_STORAGE).setEnabled(enabled);
+        preferenceScreen.findPreference(KEY_STORAGE_PROFILE).setEnabled(enabled);
     }
 
     @Override
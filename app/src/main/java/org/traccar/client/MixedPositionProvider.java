@@ -38,7 +38,16 @@ public class MixedPositionProvider extends PositionProvider implements LocationL
     public void startUpdates() {
         lastFixTime = System.currentTimeMillis();
         locationManager.addGpsStatusListener(this);
-        locationManager.requestLocationUpdates(LocationManager.GPS_PROVIDER, minInterval, 0, this);
+        locationManager.requestLocationUpdates(LocationManager.GPS_PROVIDER, getInterval(), 0, this);
+    }
+
+    @Override
+    protected void updateInterval() {
+        // replaces the earlier request of the same listener, the backup provider keeps its period
+        locationManager.requestLocationUpdates(LocationManager.GPS_PROVIDER, getInterval(), 0, this);
+        if (getState() == TrackingState.PARKED) {
+            stopBackupProvider();
+        }
     }
 
     public void stopUpdates() {
@@ -111,7 +120,10 @@ public class MixedPositionProvider extends PositionProvider implements LocationL
 
     @Override
     public void onGpsStatusChanged(int event) {
-        if (backupListener == null && System.currentTimeMillis() - (lastFixTime + period) > FIX_TIMEOUT) {
+        // the next fix is due one requested interval after the last one, which is not the period;
+        // a parked device samples GPS now and then and keeps reporting the parked location meanwhile
+        if (backupListener == null && getState() != TrackingState.PARKED
+                && System.currentTimeMillis() - (lastFixTime + getInterval()) > FIX_TIMEOUT) {
             startBackupProvider();
         }
     }
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2015 Anton Tananaev (anton.tananaev@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.client;
+
+import java.io.IOException;
+
+/**
+ * Server accepted only the first positions of a batch. Those can be deleted, the rest has to be
+ * sent again.
+ */
+public class PartialAcknowledgementException extends IOException {
+
+    private final int accepted;
+
+    public PartialAcknowledgementException(int accepted, int count) {
+        super("Server accepted " + accepted + " of " + count + " positions");
+        this.accepted = accepted;
+    }
+
+    public int getAccepted() {
+        return accepted;
+    }
+
+}
@@ -76,4 +76,9 @@ public class Position {
     public double getBattery() { return battery; }
     public void setBattery(double battery) { this.battery = battery; }
 
+    // parked location repeated once per period, only known while the position is reported
+    private boolean heartbeat;
+    public boolean isHeartbeat() { return heartbeat; }
+    public void setHeartbeat(boolean heartbeat) { this.heartbeat = heartbeat; }
+
 }
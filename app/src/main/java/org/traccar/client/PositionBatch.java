@@ -0,0 +1,159 @@
+/*
+ * Copyright 2015 Anton Tananaev (anton.tananaev@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.client;
+
+import java.util.Arrays;
+
+/**
+ * Reusable batch of positions kept in parallel primitive arrays. Stores fill it straight from
+ * their cursors and the formatter reads it by index, so a batch does not allocate per position.
+ */
+public class PositionBatch {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int size;
+
+    private long[] ids;
+    private String[] deviceIds;
+    private long[] times;
+    private double[] latitudes;
+    private double[] longitudes;
+    private double[] horizontalAccuracies;
+    private double[] altitudes;
+    private double[] speeds;
+    private double[] courses;
+    private double[] batteries;
+
+    public PositionBatch() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public PositionBatch(int capacity) {
+        allocate(Math.max(capacity, 1));
+    }
+
+    private void allocate(int capacity) {
+        ids = ids == null ? new long[capacity] : Arrays.copyOf(ids, capacity);
+        deviceIds = deviceIds == null ? new String[capacity] : Arrays.copyOf(deviceIds, capacity);
+        times = times == null ? new long[capacity] : Arrays.copyOf(times, capacity);
+        latitudes = latitudes == null ? new double[capacity] : Arrays.copyOf(latitudes, capacity);
+        longitudes = longitudes == null ? new double[capacity] : Arrays.copyOf(longitudes, capacity);
+        horizontalAccuracies = horizontalAccuracies == null
+                ? new double[capacity] : Arrays.copyOf(horizontalAccuracies, capacity);
+        altitudes = altitudes == null ? new double[capacity] : Arrays.copyOf(altitudes, capacity);
+        speeds = speeds == null ? new double[capacity] : Arrays.copyOf(speeds, capacity);
+        courses = courses == null ? new double[capacity] : Arrays.copyOf(courses, capacity);
+        batteries = batteries == null ? new double[capacity] : Arrays.copyOf(batteries, capacity);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        truncate(0);
+    }
+
+    /**
+     * Drops positions from {@code size} on.
+     */
+    public void truncate(int size) {
+        if (size < this.size) {
+            // device ids are the only references, release them
+            Arrays.fill(deviceIds, size, this.size, null);
+            this.size = size;
+        }
+    }
+
+    public void add(long id, String deviceId, long time, double latitude, double longitude,
+                    double horizontalAccuracy, double altitude, double speed, double course, double battery) {
+        if (size == ids.length) {
+            allocate(size * 2);
+        }
+        ids[size] = id;
+        deviceIds[size] = deviceId;
+        times[size] = time;
+        latitudes[size] = latitude;
+        longitudes[size] = longitude;
+        horizontalAccuracies[size] = horizontalAccuracy;
+        altitudes[size] = altitude;
+        speeds[size] = speed;
+        courses[size] = course;
+        batteries[size] = battery;
+        size += 1;
+    }
+
+    /**
+     * Drops the first {@code count} positions and moves the rest to the front.
+     */
+    public void removeFirst(int count) {
+        count = Math.min(count, size);
+        int rest = size - count;
+        System.arraycopy(ids, count, ids, 0, rest);
+        System.arraycopy(deviceIds, count, deviceIds, 0, rest);
+        System.arraycopy(times, count, times, 0, rest);
+        System.arraycopy(latitudes, count, latitudes, 0, rest);
+        System.arraycopy(longitudes, count, longitudes, 0, rest);
+        System.arraycopy(horizontalAccuracies, count, horizontalAccuracies, 0, rest);
+        System.arraycopy(altitudes, count, altitudes, 0, rest);
+        System.arraycopy(speeds, count, speeds, 0, rest);
+        System.arraycopy(courses, count, courses, 0, rest);
+        System.arraycopy(batteries, count, batteries, 0, rest);
+        truncate(rest);
+    }
+
+    public void add(PositionBatch batch, int index) {
+        add(batch.ids[index], batch.deviceIds[index], batch.times[index],
+                batch.latitudes[index], batch.longitudes[index], batch.horizontalAccuracies[index],
+                batch.altitudes[index], batch.speeds[index], batch.courses[index], batch.batteries[index]);
+    }
+
+    public void add(Position position) {
+        add(position.getId(), position.getDeviceId(), position.getTime().getTime(),
+                position.getLatitude(), position.getLongitude(), position.getHorizontalAccuracy(),
+                position.getAltitude(), position.getSpeed(), position.getCourse(), position.getBattery());
+    }
+
+    public long getId(int index) { return ids[index]; }
+
+    public long getFirstId() { return ids[0]; }
+
+    public long getLastId() { return ids[size - 1]; }
+
+    public String getDeviceId(int index) { return deviceIds[index]; }
+
+    public long getTime(int index) { return times[index]; }
+
+    public double getLatitude(int index) { return latitudes[index]; }
+
+    public double getLongitude(int index) { return longitudes[index]; }
+
+    public double getHorizontalAccuracy(int index) { return horizontalAccuracies[index]; }
+
+    public double getAltitude(int index) { return altitudes[index]; }
+
+    public double getSpeed(int index) { return speeds[index]; }
+
+    public double getCourse(int index) { return courses[index]; }
+
+    public double getBattery(int index) { return batteries[index]; }
+
+}
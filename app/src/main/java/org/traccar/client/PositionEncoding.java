@@ -0,0 +1,99 @@
+/*
+ * Copyright 2015 Anton Tananaev (anton.tananaev@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.client;
+
+/**
+ * Fixed point encoding of stored position values. Values are rounded to the resolution below and
+ * clamped to fit the narrow integer types used by the stores.
+ */
+public final class PositionEncoding {
+
+    private PositionEncoding() {
+    }
+
+    // coordinates in 1e-7 degrees (about 1 cm), fits 32 bit integer
+    private static final double COORDINATE_SCALE = 10000000;
+
+    // accuracy and altitude in decimeters
+    private static final double DISTANCE_SCALE = 10;
+
+    // speed in 0.1 knots
+    private static final double SPEED_SCALE = 10;
+
+    // course in 0.1 degrees
+    private static final double COURSE_SCALE = 10;
+    private static final int COURSE_RANGE = 3600;
+
+    // battery in 0.1 percent
+    private static final double BATTERY_SCALE = 10;
+    private static final int BATTERY_MAX = 1000;
+
+    public static final int UNSIGNED_SHORT_MAX = 0xFFFF;
+
+    private static long clamp(long value, long min, long max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    public static int encodeCoordinate(double value) {
+        return (int) Math.round(value * COORDINATE_SCALE);
+    }
+
+    public static double decodeCoordinate(long value) {
+        return value / COORDINATE_SCALE;
+    }
+
+    public static int encodeAccuracy(double value) {
+        return (int) clamp(Math.round(value * DISTANCE_SCALE), 0, UNSIGNED_SHORT_MAX);
+    }
+
+    public static double decodeAccuracy(long value) {
+        return value / DISTANCE_SCALE;
+    }
+
+    public static int encodeAltitude(double value) {
+        return (int) clamp(Math.round(value * DISTANCE_SCALE), Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    public static double decodeAltitude(long value) {
+        return value / DISTANCE_SCALE;
+    }
+
+    public static int encodeSpeed(double value) {
+        return (int) clamp(Math.round(value * SPEED_SCALE), 0, UNSIGNED_SHORT_MAX);
+    }
+
+    public static double decodeSpeed(long value) {
+        return value / SPEED_SCALE;
+    }
+
+    public static int encodeCourse(double value) {
+        int course = (int) (Math.round(value * COURSE_SCALE) % COURSE_RANGE);
+        return course < 0 ? course + COURSE_RANGE : course;
+    }
+
+    public static double decodeCourse(long value) {
+        return value / COURSE_SCALE;
+    }
+
+    public static int encodeBattery(double value) {
+        return (int) clamp(Math.round(value * BATTERY_SCALE), 0, BATTERY_MAX);
+    }
+
+    public static double decodeBattery(long value) {
+        return value / BATTERY_SCALE;
+    }
+
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2015 Anton Tananaev (anton.tananaev@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.client;
+
+import android.location.Location;
+
+/**
+ * One stage of the chain deciding which fixes become positions.
+ */
+public interface PositionFilter {
+
+    enum Result {
+        // the fix is reported, later stages are skipped
+        ACCEPT,
+        // the fix is dropped, later stages are skipped
+        REJECT,
+        // undecided, the next stage decides
+        PASS
+    }
+
+    /**
+     * @return short name used in statistics and for inserting stages
+     */
+    String getName();
+
+    /**
+     * @param lastLocation last reported fix, {@code null} before the first one
+     */
+    Result filter(Location location, Location lastLocation);
+
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2015 Anton Tananaev (anton.tananaev@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.client;
+
+import android.location.Location;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Runs fixes through filter stages in order and counts what every stage decided and how long it
+ * took. A fix no stage accepts is dropped as unchanged.
+ */
+public class PositionFilterChain {
+
+    private static final String TAG = PositionFilterChain.class.getSimpleName();
+
+    public static class Stage {
+
+        private final PositionFilter filter;
+        private int acceptCount;
+        private int rejectCount;
+        private int passCount;
+        private long time;
+
+        Stage(PositionFilter filter) {
+            this.filter = filter;
+        }
+
+        public String getName() {
+            return filter.getName();
+        }
+
+        public PositionFilter getFilter() {
+            return filter;
+        }
+
+        public int getAcceptCount() {
+            return acceptCount;
+        }
+
+        public int getRejectCount() {
+            return rejectCount;
+        }
+
+        public int getPassCount() {
+            return passCount;
+        }
+
+        /**
+         * @return total time spent in the stage, in nanoseconds
+         */
+        public long getTime() {
+            return time;
+        }
+
+    }
+
+    private final List<Stage> stages = new ArrayList<>();
+    private int unchangedCount;
+
+    public synchronized void add(PositionFilter filter) {
+        stages.add(new Stage(filter));
+    }
+
+    /**
+     * Inserts a stage in front of the named one, or at the end if there is no such stage.
+     */
+    public synchronized void insertBefore(String name, PositionFilter filter) {
+        for (int i = 0; i < stages.size(); i++) {
+            if (stages.get(i).getName().equals(name)) {
+                stages.add(i, new Stage(filter));
+                return;
+            }
+        }
+        stages.add(new Stage(filter));
+    }
+
+    public synchronized List<Stage> getStages() {
+        return Collections.unmodifiableList(new ArrayList<>(stages));
+    }
+
+    /**
+     * @return number of fixes that passed every stage without being accepted
+     */
+    public synchronized int getUnchangedCount() {
+        return unchangedCount;
+    }
+
+    public synchronized boolean accept(Location location, Location lastLocation) {
+        for (Stage stage : stages) {
+            long start = System.nanoTime();
+            PositionFilter.Result result = stage.filter.filter(location, lastLocation);
+            stage.time += System.nanoTime() - start;
+            switch (result) {
+                case ACCEPT:
+                    stage.acceptCount += 1;
+                    return true;
+                case REJECT:
+                    stage.rejectCount += 1;
+                    Log.i(TAG, "location rejected by " + stage.getName());
+                    return false;
+                default:
+                    stage.passCount += 1;
+                    break;
+            }
+        }
+        unchangedCount += 1;
+        return false;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder result = new StringBuilder();
+        for (Stage stage : stages) {
+            result.append(stage.getName())
+                    .append(": accepted ").append(stage.acceptCount)
+                    .append(", rejected ").append(stage.rejectCount)
+                    .append(", ").append(stage.time / 1000).append(" us\n");
+        }
+        result.append("unchanged: ").append(unchangedCount);
+        return result.toString();
+    }
+
+}
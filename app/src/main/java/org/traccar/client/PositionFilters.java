@@ -0,0 +1,214 @@
+/*
+ * Copyright 2015 Anton Tananaev (anton.tananaev@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.client;
+
+import android.location.Location;
+
+/**
+ * Standard filter stages. Staleness and the accuracy gate drop fixes, the other stages report a
+ * fix as soon as one of them sees a change worth reporting.
+ */
+public final class PositionFilters {
+
+    public static final String STALENESS = "staleness";
+    public static final String ACCURACY_GATE = "accuracy";
+    public static final String ACCURACY_STEP = "accuracy_step";
+    public static final String SPEED_COURSE = "speed_course";
+    public static final String DISTANCE = "distance";
+    public static final String PERIOD = "period";
+
+    private PositionFilters() {
+    }
+
+    /**
+     * Chain with the stages configured in the settings, in the order they were checked before.
+     */
+    public static PositionFilterChain createDefault(long period, long minAccuracy, long accuracyLevelStep,
+            long distanceThreshold, double speedDeltaThreshold, long courseDeltaThreshold) {
+        PositionFilterChain chain = new PositionFilterChain();
+        chain.add(new Staleness());
+        chain.add(new AccuracyGate(minAccuracy));
+        chain.add(new AccuracyStep(accuracyLevelStep));
+        chain.add(new SpeedCourseDelta(speedDeltaThreshold, courseDeltaThreshold));
+        chain.add(new Distance(distanceThreshold));
+        chain.add(new Period(period));
+        return chain;
+    }
+
+    /**
+     * Drops a fix repeating the time of the last one.
+     */
+    public static class Staleness implements PositionFilter {
+
+        @Override
+        public String getName() {
+            return STALENESS;
+        }
+
+        @Override
+        public Result filter(Location location, Location lastLocation) {
+            if (lastLocation != null && location.getTime() == lastLocation.getTime()) {
+                return Result.REJECT;
+            }
+            return Result.PASS;
+        }
+
+    }
+
+    /**
+     * Drops a fix without accuracy or less accurate than the minimum, 0 for no minimum.
+     */
+    public static class AccuracyGate implements PositionFilter {
+
+        private final long minAccuracy;
+
+        public AccuracyGate(long minAccuracy) {
+            this.minAccuracy = minAccuracy;
+        }
+
+        @Override
+        public String getName() {
+            return ACCURACY_GATE;
+        }
+
+        @Override
+        public Result filter(Location location, Location lastLocation) {
+            if (!location.hasAccuracy() || minAccuracy > 0 && location.getAccuracy() > minAccuracy) {
+                return Result.REJECT;
+            }
+            return Result.PASS;
+        }
+
+    }
+
+    /**
+     * Reports the first fix and every fix reaching a better accuracy level.
+     */
+    public static class AccuracyStep implements PositionFilter {
+
+        private final long accuracyLevelStep;
+
+        public AccuracyStep(long accuracyLevelStep) {
+            this.accuracyLevelStep = accuracyLevelStep;
+        }
+
+        @Override
+        public String getName() {
+            return ACCURACY_STEP;
+        }
+
+        @Override
+        public Result filter(Location location, Location lastLocation) {
+            if (lastLocation == null || Math.floor(location.getAccuracy() / accuracyLevelStep)
+                    < Math.floor(lastLocation.getAccuracy() / accuracyLevelStep)) {
+                return Result.ACCEPT;
+            }
+            return Result.PASS;
+        }
+
+    }
+
+    /**
+     * Reports a fix whose speed, in m/s, or course changed by the threshold, 0 to only report
+     * speed or course appearing.
+     */
+    public static class SpeedCourseDelta implements PositionFilter {
+
+        private final double speedDeltaThreshold;
+        private final long courseDeltaThreshold;
+
+        public SpeedCourseDelta(double speedDeltaThreshold, long courseDeltaThreshold) {
+            this.speedDeltaThreshold = speedDeltaThreshold;
+            this.courseDeltaThreshold = courseDeltaThreshold;
+        }
+
+        @Override
+        public String getName() {
+            return SPEED_COURSE;
+        }
+
+        @Override
+        public Result filter(Location location, Location lastLocation) {
+            if (lastLocation == null) {
+                return Result.ACCEPT;
+            }
+            if (location.hasSpeed() && (!lastLocation.hasSpeed() || speedDeltaThreshold > 0
+                    && Math.abs(location.getSpeed() - lastLocation.getSpeed()) >= speedDeltaThreshold)) {
+                return Result.ACCEPT;
+            }
+            if (location.hasBearing() && (!lastLocation.hasBearing() || courseDeltaThreshold > 0
+                    && Math.abs(location.getBearing() - lastLocation.getBearing()) >= courseDeltaThreshold)) {
+                return Result.ACCEPT;
+            }
+            return Result.PASS;
+        }
+
+    }
+
+    /**
+     * Reports a fix the threshold in meters away from the last one, 0 to disable.
+     */
+    public static class Distance implements PositionFilter {
+
+        private final long distanceThreshold;
+
+        public Distance(long distanceThreshold) {
+            this.distanceThreshold = distanceThreshold;
+        }
+
+        @Override
+        public String getName() {
+            return DISTANCE;
+        }
+
+        @Override
+        public Result filter(Location location, Location lastLocation) {
+            if (lastLocation == null
+                    || distanceThreshold > 0 && location.distanceTo(lastLocation) >= distanceThreshold) {
+                return Result.ACCEPT;
+            }
+            return Result.PASS;
+        }
+
+    }
+
+    /**
+     * Reports a fix once the period in milliseconds has passed since the last one.
+     */
+    public static class Period implements PositionFilter {
+
+        private final long period;
+
+        public Period(long period) {
+            this.period = period;
+        }
+
+        @Override
+        public String getName() {
+            return PERIOD;
+        }
+
+        @Override
+        public Result filter(Location location, Location lastLocation) {
+            if (lastLocation == null || location.getTime() - lastLocation.getTime() >= period) {
+                return Result.ACCEPT;
+            }
+            return Result.PASS;
+        }
+
+    }
+
+}
@@ -35,6 +35,23 @@ public abstract class PositionProvider {
         void onPositionUpdate(Position position);
     }
 
+    /**
+     * With duty cycling, a device that stayed within the stationary radius for the stationary
+     * delay is parked: GPS only samples now and then and every {@code period} the parked location
+     * is reported again as a heartbeat. A sample away from the parked location, or with walking
+     * speed, resumes tracking.
+     */
+    public enum TrackingState {
+        MOVING,
+        PARKED
+    }
+
+    public static final long STATIONARY_DELAY = 5 * 60 * 1000;
+    public static final long PARKED_SAMPLE_INTERVAL = 2 * 60 * 1000;
+    public static final long DEFAULT_STATIONARY_RADIUS = 50;
+    // speed in m/s a parked device is considered moving at
+    private static final double RESUME_SPEED = 2;
+
     private final PositionListener listener;
 
     private final Context context;
@@ -51,6 +68,13 @@ public abstract class PositionProvider {
     protected final double speedDeltaThreshold;
     protected final long courseDeltaThreshold;
 
+    private final PositionFilterChain filters;
+    private final AdaptiveInterval adaptiveInterval;
+
+    private final boolean dutyCycle;
+    private TrackingState state = TrackingState.MOVING;
+    private Location anchor;
+
     private Location lastLocation;
 
     public PositionProvider(Context context, PositionListener listener) {
@@ -70,36 +94,108 @@ public abstract class PositionProvider {
         courseDeltaThreshold = Integer.parseInt(preferences.getString(MainActivity.KEY_COURSE_DELTA_THRESHOLD, "0"));
 
         type = preferences.getString(MainActivity.KEY_PROVIDER, null);
+
+        if (preferences.getBoolean(MainActivity.KEY_ADAPTIVE_INTERVAL, false)) {
+            adaptiveInterval = new AdaptiveInterval(minInterval);
+        } else {
+            adaptiveInterval = null;
+        }
+
+        dutyCycle = preferences.getBoolean(MainActivity.KEY_DUTY_CYCLE, false);
+
+        filters = PositionFilters.createDefault(period, minAccuracy, accuracyLevelStep,
+                distanceThreshold, speedDeltaThreshold, courseDeltaThreshold);
+    }
+
+    /**
+     * Stages deciding which fixes are reported, more can be inserted before starting updates.
+     */
+    public PositionFilterChain getFilters() {
+        return filters;
     }
 
     public abstract void startUpdates();
 
     public abstract void stopUpdates();
 
+    /**
+     * @return interval to request GPS updates with, depends on the motion state if adaptive
+     */
+    protected long getInterval() {
+        if (state == TrackingState.PARKED) {
+            return Math.max(minInterval, PARKED_SAMPLE_INTERVAL);
+        }
+        return adaptiveInterval != null ? adaptiveInterval.getInterval() : minInterval;
+    }
+
+    public TrackingState getState() {
+        return state;
+    }
+
+    private long getStationaryRadius() {
+        return distanceThreshold > 0 ? distanceThreshold : DEFAULT_STATIONARY_RADIUS;
+    }
+
+    /**
+     * Requests updates again after {@link #getInterval()} changed.
+     */
+    protected abstract void updateInterval();
+
     protected void updateLocation(Location location) {
         if (location == null) {
             Log.i(TAG, "location nil");
             return;
         }
-        if (lastLocation != null && location.getTime() == lastLocation.getTime()) {
-            Log.i(TAG, "location old");
+        if (dutyCycle && updateState(location)) {
             return;
         }
-        if (!location.hasAccuracy() || (minAccuracy > 0 && location.getAccuracy() > minAccuracy)) {
-            Log.i(TAG, "location less accuracy");
-            return;
+        if (adaptiveInterval != null && adaptiveInterval.update(location)) {
+            Log.i(TAG, "motion " + adaptiveInterval.getState() + ", interval " + getInterval());
+            updateInterval();
+        }
+        if (filters.accept(location, lastLocation)) {
+            report(location, false);
+        }
+    }
+
+    private void report(Location location, boolean heartbeat) {
+        Log.i(TAG, (heartbeat ? "heartbeat: " : "location new: ") + location.toString());
+        lastLocation = location;
+        Position position = new Position(deviceId, location, getBatteryLevel());
+        position.setHeartbeat(heartbeat);
+        listener.onPositionUpdate(position);
+    }
+
+    /**
+     * @return {@code true} if the device is parked and the fix was handled as a sample
+     */
+    private boolean updateState(Location location) {
+        boolean away = anchor == null || location.distanceTo(anchor) > getStationaryRadius();
+        if (state == TrackingState.MOVING) {
+            if (away) {
+                anchor = location;
+            } else if (location.getTime() - anchor.getTime() >= STATIONARY_DELAY) {
+                state = TrackingState.PARKED;
+                Log.i(TAG, "parked, sampling every " + getInterval());
+                updateInterval();
+            }
+            return false;
+        }
+        if (away || location.hasSpeed() && location.getSpeed() > RESUME_SPEED) {
+            state = TrackingState.MOVING;
+            anchor = location;
+            Log.i(TAG, "moving, tracking resumed");
+            updateInterval();
+            return false;
         }
-        if (lastLocation == null ||
-                Math.floor(location.getAccuracy()/accuracyLevelStep) < Math.floor(lastLocation.getAccuracy()/accuracyLevelStep) ||
-                location.hasSpeed() && (!lastLocation.hasSpeed() || speedDeltaThreshold > 0 && Math.abs(location.getSpeed() - lastLocation.getSpeed()) >= speedDeltaThreshold) ||
-                location.hasBearing() && (!lastLocation.hasBearing() || courseDeltaThreshold > 0 && Math.abs(location.getBearing() - lastLocation.getBearing()) >= courseDeltaThreshold) ||
-                location.getTime() - lastLocation.getTime() >= period ||
-                distanceThreshold > 0 && location.distanceTo(lastLocation) >= distanceThreshold
-                ) {
-            Log.i(TAG, "location new: " + location.toString());
-            lastLocation = location;
-            listener.onPositionUpdate(new Position(deviceId, location, getBatteryLevel()));
+        if (lastLocation == null || location.getTime() - lastLocation.getTime() >= period) {
+            // the parked location again, so sample noise does not show up as movement
+            Location heartbeat = new Location(lastLocation != null ? lastLocation : anchor);
+            heartbeat.setTime(location.getTime());
+            heartbeat.setSpeed(0);
+            report(heartbeat, true);
         }
+        return true;
     }
 
     @TargetApi(Build.VERSION_CODES.ECLAIR)
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2015 Anton Tananaev (anton.tananaev@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.client;
+
+/**
+ * Queue of positions waiting to be reported. Failures are reported as runtime exceptions.
+ */
+public interface PositionStore {
+
+    void insertPosition(Position position);
+
+    /**
+     * Makes all inserted positions durable and visible to readers.
+     */
+    void flush();
+
+    /**
+     * @return latest stored position or {@code null} if the store is empty
+     */
+    Position selectPosition();
+
+    /**
+     * Replaces the contents of {@code batch} with up to {@code limit} oldest positions that are
+     * not in flight yet and leases them. Leased positions are skipped by later leases and by
+     * eviction until the batch is deleted or released. Leases do not survive reopening the store.
+     *
+     * @return number of positions leased
+     */
+    int leasePositions(int limit, PositionBatch batch);
+
+    /**
+     * Returns a leased batch to the queue after a failed upload.
+     */
+    void releasePositions(PositionBatch batch);
+
+    void deletePosition(long id);
+
+    /**
+     * Acknowledges a batch returned by {@link #leasePositions}.
+     * Fails unless every position of the batch was still stored.
+     */
+    void deletePositions(PositionBatch batch);
+
+    void close();
+
+}
@@ -15,60 +15,121 @@
  */
 package org.traccar.client;
 
-import android.net.Uri;
-import android.text.TextUtils;
 import android.util.Log;
 
-import java.util.LinkedList;
-import java.util.List;
-
 public class ProtocolFormatter {
-    public static String formatRequest(String address, int port, Position position) {
 
-        Uri.Builder builder = new Uri.Builder();
-        builder.scheme("http").encodedAuthority(address + ':' + port)
-                .appendPath("")
-                .appendQueryParameter("id", position.getDeviceId())
-                .appendQueryParameter("timestamp", String.valueOf(position.getTime().getTime()))
-                .appendQueryParameter("lat", String.valueOf(position.getLatitude()))
-                .appendQueryParameter("lon", String.valueOf(position.getLongitude()))
-                .appendQueryParameter("hacc", String.valueOf(position.getHorizontalAccuracy()))
-                .appendQueryParameter("speed", String.valueOf(position.getSpeed()))
-                .appendQueryParameter("bearing", String.valueOf(position.getCourse()))
-                .appendQueryParameter("altitude", String.valueOf(position.getAltitude()))
-                .appendQueryParameter("batt", String.valueOf(position.getBattery()));
+    // about 10 cm for coordinates, finer than any fix, and centimeters or hundredths for the rest
+    static final int COORDINATE_DECIMALS = 6;
+    static final int VALUE_DECIMALS = 2;
+
+    /**
+     * Compares device ids, rows stored before device ids were required can have none.
+     */
+    static boolean equals(String deviceId, String otherDeviceId) {
+        return deviceId == null ? otherDeviceId == null : deviceId.equals(otherDeviceId);
+    }
+
+    /**
+     * @return request URL without a query, the same for every request to the server
+     */
+    public static String formatUrl(String address, int port) {
+        return "http://" + address + ':' + port + '/';
+    }
+
+    public static String formatRequest(String address, int port, Position position) {
+        AsciiBuffer buffer = new AsciiBuffer();
+        buffer.append(formatUrl(address, port)).append('?');
+        appendRecord(buffer, position.getDeviceId(), position.getTime().getTime(),
+                position.getLatitude(), position.getLongitude(), position.getHorizontalAccuracy(),
+                position.getSpeed(), position.getCourse(), position.getAltitude(), position.getBattery());
 
-        String url = builder.build().toString();
+        String url = buffer.toString();
         Log.d("ProtocolFormatter", url);
         return url;
     }
 
-    public static Pair<String, String> formatRequest(String address, int port, List<Position> positions) {
+    private static void appendRecord(
+            AsciiBuffer buffer, String deviceId, long time, double latitude, double longitude,
+            double horizontalAccuracy, double speed, double course, double altitude, double battery) {
+        buffer.append("id=").appendEncoded(deviceId)
+                .append("&timestamp=").append(time)
+                .append("&lat=").append(latitude, COORDINATE_DECIMALS)
+                .append("&lon=").append(longitude, COORDINATE_DECIMALS)
+                .append("&hacc=").append(horizontalAccuracy, VALUE_DECIMALS)
+                .append("&speed=").append(speed, VALUE_DECIMALS)
+                .append("&bearing=").append(course, VALUE_DECIMALS)
+                .append("&altitude=").append(altitude, VALUE_DECIMALS)
+                .append("&batt=").append(battery, VALUE_DECIMALS);
+    }
+
+    /**
+     * Appends the URL encoded record of one position, the same as a line of a batch request body.
+     */
+    public static void appendRecord(AsciiBuffer buffer, PositionBatch batch, int index) {
+        appendRecord(buffer, batch.getDeviceId(index), batch.getTime(index),
+                batch.getLatitude(index), batch.getLongitude(index), batch.getHorizontalAccuracy(index),
+                batch.getSpeed(index), batch.getCourse(index), batch.getAltitude(index), batch.getBattery(index));
+    }
+
+    /**
+     * Appends the record of a parked heartbeat, only the parked location and battery, marked
+     * {@code heartbeat=true} so the server can tell it from a fix.
+     */
+    public static void appendHeartbeat(AsciiBuffer buffer, Position position) {
+        buffer.append("id=").appendEncoded(position.getDeviceId())
+                .append("&timestamp=").append(position.getTime().getTime())
+                .append("&lat=").append(position.getLatitude(), COORDINATE_DECIMALS)
+                .append("&lon=").append(position.getLongitude(), COORDINATE_DECIMALS)
+                .append("&batt=").append(position.getBattery(), VALUE_DECIMALS)
+                .append("&heartbeat=true");
+    }
 
-        if (positions.size() == 1)
-            return new Pair<>(formatRequest(address, port, positions.get(0)), null);
-        Uri.Builder builder = new Uri.Builder();
-        builder.scheme("http").encodedAuthority(address + ':' + port)
-                .appendPath("");
-        List<String> records = new LinkedList<>();
-        for (Position position: positions) {
-            builder.clearQuery()
-                    .appendQueryParameter("id", position.getDeviceId())
-                    .appendQueryParameter("timestamp", String.valueOf(position.getTime().getTime()))
-                    .appendQueryParameter("lat", String.valueOf(position.getLatitude()))
-                    .appendQueryParameter("lon", String.valueOf(position.getLongitude()))
-                    .appendQueryParameter("hacc", String.valueOf(position.getHorizontalAccuracy()))
-                    .appendQueryParameter("speed", String.valueOf(position.getSpeed()))
-                    .appendQueryParameter("bearing", String.valueOf(position.getCourse()))
-                    .appendQueryParameter("altitude", String.valueOf(position.getAltitude()))
-                    .appendQueryParameter("batt", String.valueOf(position.getBattery()));
-            String record = builder.build().getEncodedQuery();
-            records.add(record);
+    /**
+     * Appends the records of all positions, one per line.
+     */
+    public static void appendBody(AsciiBuffer buffer, PositionBatch batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            if (i > 0) {
+                buffer.append('\n');
+            }
+            appendRecord(buffer, batch, i);
         }
+    }
 
-        String url = builder.clearQuery().build().toString();
-        Pair<String, String> result = new Pair<>(url, TextUtils.join("\n", records));
-        Log.d("ProtocolFormatter", result.toString());
-        return result;
+    /**
+     * Reads an acknowledgement from a response body. A server that accepted only part of a batch
+     * answers with a line {@code ack=N}, the number of positions accepted from the start of the
+     * batch, or {@code ack_time=T}, the latest accepted position time in milliseconds.
+     *
+     * @return number of accepted positions from the start of the batch, -1 without acknowledgement
+     */
+    public static int parseAcknowledgement(CharSequence response, PositionBatch batch) {
+        String text = response.toString();
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start);
+            if (end < 0) {
+                end = text.length();
+            }
+            String line = text.substring(start, end).trim();
+            start = end + 1;
+            try {
+                if (line.startsWith("ack=")) {
+                    return (int) Math.max(0, Math.min(batch.size(), Long.parseLong(line.substring(4))));
+                } else if (line.startsWith("ack_time=")) {
+                    long time = Long.parseLong(line.substring(9));
+                    int accepted = 0;
+                    while (accepted < batch.size() && batch.getTime(accepted) <= time) {
+                        accepted += 1;
+                    }
+                    return accepted;
+                }
+            } catch (NumberFormatException error) {
+                Log.w("ProtocolFormatter", "invalid acknowledgement: " + line);
+            }
+        }
+        return -1;
     }
+
 }
@@ -15,92 +15,210 @@
  */
 package org.traccar.client;
 
-import android.os.AsyncTask;
 import android.util.Log;
 
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
 
 public class RequestManager {
 
+    private static final String TAG = RequestManager.class.getSimpleName();
     private static final int TIMEOUT = 15 * 1000;
 
-    public interface RequestHandler {
-        void onComplete(boolean success);
+    public static boolean sendRequest(String request) {
+        return sendRequest(new Pair<String, String>(request, null));
+    }
+
+    public static boolean sendRequest(Pair<String, String> request) {
+        return sendRequest(request, false);
     }
 
-    private static class RequestAsyncTask extends AsyncTask<Pair<String, String>, Void, Boolean> {
+    private static final String CONTENT_TYPE = "application/x-www-form-urlencoded";
+
+    // idle persistent connections per server, concurrent requests take one each
+    private static final Map<String, Deque<HttpConnection>> connections = new HashMap<>();
 
-        private RequestHandler handler;
+    // servers that rejected a compressed body, they get plain bodies from then on
+    private static final Set<String> uncompressedServers = Collections.synchronizedSet(new HashSet<String>());
 
-        public RequestAsyncTask(RequestHandler handler) {
-            this.handler = handler;
+    private static HttpConnection acquireConnection(String host, int port) {
+        synchronized (connections) {
+            Deque<HttpConnection> idle = connections.get(host + ":" + port);
+            if (idle != null && !idle.isEmpty()) {
+                return idle.pop();
+            }
         }
+        return new HttpConnection(host, port, TIMEOUT);
+    }
 
-        @Override
-        protected Boolean doInBackground(Pair<String, String>... request) {
-            return sendRequest(request[0]);
+    private static void releaseConnection(String host, int port, HttpConnection connection) {
+        String key = host + ":" + port;
+        synchronized (connections) {
+            Deque<HttpConnection> idle = connections.get(key);
+            if (idle == null) {
+                idle = new ArrayDeque<>();
+                connections.put(key, idle);
+            }
+            idle.push(connection);
         }
+    }
 
-        @Override
-        protected void onPostExecute(Boolean result) {
-            handler.onComplete(result);
+    public static void closeConnections() {
+        synchronized (connections) {
+            for (Deque<HttpConnection> idle : connections.values()) {
+                for (HttpConnection connection : idle) {
+                    connection.close();
+                }
+            }
+            connections.clear();
         }
     }
 
-    public static boolean sendRequest(String request) {
-        return sendRequest(new Pair<String, String>(request, null));
+    // unsupported encoding, or no support for the chunked body a compressed one is streamed as
+    private static boolean isCompressionRejected(int status) {
+        return status == 411 || status == 415 || status == 501;
     }
-    public static boolean sendRequest(Pair<String, String> request) {
-        InputStream inputStream = null;
-        try {
-            URL url = new URL(request.first);
-            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-            connection.setReadTimeout(TIMEOUT);
-            connection.setConnectTimeout(TIMEOUT);
-
-            if (request.second != null) {
-                connection.setRequestMethod("POST");
-                connection.setRequestProperty("Content-Length", String.valueOf(request.second.getBytes().length));
-                connection.setDoInput(true);
-                connection.setDoOutput(true);
-
-                // Send post body
-                DataOutputStream wr = new DataOutputStream(connection.getOutputStream());
-                wr.writeBytes(request.second);
-                wr.flush();
-                wr.close();
-            }
-            else {
-                connection.connect();
-            }
 
-            inputStream = connection.getInputStream();
-            while (inputStream.read() != -1);
+    /**
+     * @param compress send a POST body gzip compressed, falls back to a plain body if the server rejects it
+     */
+    public static boolean sendRequest(Pair<String, String> request, boolean compress) {
+        try {
+            executeRequest(request, compress);
             return true;
         } catch (IOException error) {
             return false;
-        } finally {
+        }
+    }
+
+    /**
+     * @return size of the request URL and body before compression
+     * @throws IOException if the request fails or the server does not answer with a success status
+     */
+    public static int executeRequest(Pair<String, String> request, boolean compress) throws IOException {
+        byte[] body = request.second != null ? request.second.getBytes() : null;
+        return executeRequest(request.first, body, body != null ? body.length : 0, compress);
+    }
+
+    /**
+     * @param body request body or {@code null} for a GET request
+     * @param length number of bytes from the start of the body array to send
+     */
+    public static int executeRequest(String request, byte[] body, int length, boolean compress) throws IOException {
+        return executeRequest(request, CONTENT_TYPE, body, length, compress);
+    }
+
+    public static int executeRequest(
+            String request, String contentType, byte[] body, int length, boolean compress) throws IOException {
+        return executeRequest(request, contentType, body, length, compress, null);
+    }
+
+    /**
+     * @param response receives the beginning of the response body, may be {@code null}
+     */
+    public static int executeRequest(String request, String contentType, byte[] body, int length,
+            boolean compress, StringBuilder response) throws IOException {
+        URL url = new URL(request);
+        String server = url.getHost() + ":" + url.getPort();
+        boolean gzip = compress && body != null && !uncompressedServers.contains(server);
+        int status = send(url, contentType, body, length, gzip, response);
+        if (gzip && (isCompressionRejected(status) || status == 400)) {
+            // a bad request can have other causes, only a plain body getting through blames the compression
+            int plainStatus = send(url, contentType, body, length, false, response);
+            if (isCompressionRejected(status) || plainStatus / 100 == 2) {
+                Log.i(TAG, server + " rejected compressed body, sending uncompressed from now on");
+                uncompressedServers.add(server);
+            }
+            status = plainStatus;
+        }
+        if (status / 100 != 2) {
+            throw new HttpStatusException(status);
+        }
+        return request.length() + length;
+    }
+
+    private static int send(URL url, String contentType, byte[] body, int length,
+            boolean gzip, StringBuilder response) throws IOException {
+        if ("http".equals(url.getProtocol())) {
+            int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+            String target = url.getFile().isEmpty() ? "/" : url.getFile();
+            if (!target.startsWith("/")) {
+                target = "/" + target;
+            }
+            HttpConnection connection = acquireConnection(url.getHost(), port);
             try {
-                if (inputStream != null) {
-                    inputStream.close();
+                int status = connection.request(body != null ? "POST" : "GET", target, contentType, body, length, gzip);
+                if (response != null) {
+                    response.setLength(0);
+                    response.append(connection.getResponseBody());
                 }
-            } catch (IOException secondError) {
-                return false;
+                return status;
+            } finally {
+                releaseConnection(url.getHost(), port, connection);
             }
+        } else {
+            return sendUrlConnection(url, contentType, body, length, gzip, response);
         }
     }
 
-    public static void sendRequestAsync(String request, RequestHandler handler) {
-        RequestAsyncTask task = new RequestAsyncTask(handler);
-        task.execute(new Pair<String, String>(request, null));
-    }
-    public static void sendRequestAsync(Pair<String, String> request, RequestHandler handler) {
-        RequestAsyncTask task = new RequestAsyncTask(handler);
-        task.execute(request);
+    // Other schemes, like https, go through the platform connection
+    private static int sendUrlConnection(URL url, String contentType, byte[] body, int length,
+            boolean gzip, StringBuilder response) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setReadTimeout(TIMEOUT);
+        connection.setConnectTimeout(TIMEOUT);
+
+        if (body != null) {
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Content-Type", contentType);
+            connection.setDoInput(true);
+            connection.setDoOutput(true);
+            OutputStream outputStream;
+            if (gzip) {
+                connection.setRequestProperty("Content-Encoding", "gzip");
+                connection.setChunkedStreamingMode(0);
+                outputStream = new GZIPOutputStream(connection.getOutputStream());
+            } else {
+                connection.setFixedLengthStreamingMode(length);
+                outputStream = connection.getOutputStream();
+            }
+            outputStream.write(body, 0, length);
+            outputStream.close();
+        } else {
+            connection.connect();
+        }
+
+        // draining the response lets the platform pool the connection
+        int status = connection.getResponseCode();
+        InputStream inputStream = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        if (response != null) {
+            response.setLength(0);
+        }
+        if (inputStream != null) {
+            try {
+                byte[] buffer = new byte[1024];
+                int read;
+                while ((read = inputStream.read(buffer)) != -1) {
+                    if (response != null && response.length() < buffer.length) {
+                        response.append(new String(buffer, 0, Math.min(read, buffer.length - response.length()), "US-ASCII"));
+                    }
+                }
+            } finally {
+                inputStream.close();
+            }
+        }
+        return status;
     }
 
 }
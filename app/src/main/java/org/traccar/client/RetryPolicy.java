@@ -0,0 +1,167 @@
+/*
+ * Copyright 2015 Anton Tananaev (anton.tananaev@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.client;
+
+import android.os.SystemClock;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Decides when a failed send is tried again. Delays grow exponentially up to a cap and are drawn
+ * uniformly below it, so devices that lost the server at the same time do not come back at the
+ * same time. After repeated failures the circuit opens and no attempts are made until
+ * connectivity changes or a long pause has passed, after which a single probe is let through.
+ */
+public class RetryPolicy {
+
+    public enum Failure {
+        DNS(3), CONNECT(1), TIMEOUT(2), SERVER(2), OTHER(1);
+
+        // host lookups fail while the network is unusable, slow and failing servers get less load
+        private final int delayFactor;
+
+        Failure(int delayFactor) {
+            this.delayFactor = delayFactor;
+        }
+    }
+
+    public interface Clock {
+        long elapsedRealtime();
+    }
+
+    public static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long elapsedRealtime() {
+            return SystemClock.elapsedRealtime();
+        }
+    };
+
+    public static final long DEFAULT_BASE_DELAY = 10 * 1000;
+    public static final long DEFAULT_MAX_DELAY = 30 * 60 * 1000;
+    public static final int DEFAULT_THRESHOLD = 8;
+    public static final long DEFAULT_OPEN_TIME = 60 * 60 * 1000;
+
+    private enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final long baseDelay;
+    private final long maxDelay;
+    private final int threshold;
+    private final long openTime;
+    private final Random random;
+    private final Clock clock;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedTime;
+    private final Map<Failure, Integer> failureCounts = new EnumMap<>(Failure.class);
+
+    public RetryPolicy() {
+        this(DEFAULT_BASE_DELAY, DEFAULT_MAX_DELAY, DEFAULT_THRESHOLD, DEFAULT_OPEN_TIME, new Random(), SYSTEM_CLOCK);
+    }
+
+    /**
+     * @param threshold consecutive failures that open the circuit
+     * @param openTime milliseconds the circuit stays open if connectivity does not change
+     */
+    public RetryPolicy(long baseDelay, long maxDelay, int threshold, long openTime, Random random, Clock clock) {
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+        this.threshold = threshold;
+        this.openTime = openTime;
+        this.random = random;
+        this.clock = clock;
+    }
+
+    public static Failure classify(IOException error) {
+        if (error instanceof UnknownHostException) {
+            return Failure.DNS;
+        } else if (error instanceof ConnectException || error instanceof NoRouteToHostException) {
+            return Failure.CONNECT;
+        } else if (error instanceof SocketTimeoutException) {
+            return Failure.TIMEOUT;
+        } else if (error instanceof HttpStatusException && ((HttpStatusException) error).getStatus() / 100 == 5) {
+            return Failure.SERVER;
+        }
+        return Failure.OTHER;
+    }
+
+    /**
+     * @return {@code false} while the circuit is open or a probe is already on its way
+     */
+    public synchronized boolean allowAttempt() {
+        switch (state) {
+            case OPEN:
+                if (clock.elapsedRealtime() - openedTime >= openTime) {
+                    state = State.HALF_OPEN;
+                    return true;
+                }
+                return false;
+            case HALF_OPEN:
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    public synchronized boolean isOpen() {
+        return state != State.CLOSED;
+    }
+
+    public synchronized int getFailureCount(Failure failure) {
+        Integer count = failureCounts.get(failure);
+        return count != null ? count : 0;
+    }
+
+    public synchronized void onSuccess() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+    }
+
+    /**
+     * @return milliseconds to wait before the next attempt
+     */
+    public synchronized long onFailure(Failure failure) {
+        failureCounts.put(failure, getFailureCount(failure) + 1);
+        consecutiveFailures += 1;
+        if (state == State.HALF_OPEN || state == State.CLOSED && consecutiveFailures >= threshold) {
+            state = State.OPEN;
+            openedTime = clock.elapsedRealtime();
+        }
+        if (state == State.OPEN) {
+            return Math.max(0, openedTime + openTime - clock.elapsedRealtime());
+        }
+        // full jitter, anything between no wait and the capped exponential delay
+        int exponent = Math.min(consecutiveFailures - 1, 30);
+        long delay = Math.min(maxDelay, baseDelay * failure.delayFactor * (1L << exponent));
+        return (long) (random.nextDouble() * delay);
+    }
+
+    /**
+     * A different network may well reach the server, start over with short delays.
+     */
+    public synchronized void onConnectivityChange() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+    }
+
+}
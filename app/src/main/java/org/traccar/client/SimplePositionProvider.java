@@ -33,7 +33,13 @@ public class SimplePositionProvider extends PositionProvider implements Location
     }
 
     public void startUpdates() {
-        locationManager.requestLocationUpdates(type, minInterval, 0, this);
+        locationManager.requestLocationUpdates(type, getInterval(), 0, this);
+    }
+
+    @Override
+    protected void updateInterval() {
+        // replaces the earlier request of the same listener
+        locationManager.requestLocationUpdates(type, getInterval(), 0, this);
     }
 
     public void stopUpdates() {
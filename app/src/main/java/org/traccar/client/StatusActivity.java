@@ -23,6 +23,8 @@ import java.util.Set;
 
 import android.app.ListActivity;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
@@ -41,8 +43,23 @@ public class StatusActivity extends ListActivity {
         }
     }
 
+    private static final Handler handler = new Handler(Looper.getMainLooper());
+
     public static void addMessage(String message) {
-        message = new SimpleDateFormat("H:mm:ss").format(new Date()) + " " + message;
+        final String line = new SimpleDateFormat("H:mm:ss").format(new Date()) + " " + message;
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            appendMessage(line);
+        } else {
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    appendMessage(line);
+                }
+            });
+        }
+    }
+
+    private static void appendMessage(String message) {
         messages.add(message);
         while (messages.size() > LIMIT) {
             messages.removeFirst();
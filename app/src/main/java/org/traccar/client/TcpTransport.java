@@ -0,0 +1,194 @@
+/*
+ * Copyright 2015 Anton Tananaev (anton.tananaev@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.client;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.Charset;
+
+/**
+ * Streams positions over one long-lived TCP connection. Every position is a line of comma separated
+ * values, the URL encoded device id followed by time, latitude, longitude, accuracy, speed, bearing,
+ * altitude and battery:
+ * <pre>
+ * 123456789012345,1400000000000,59.4,24.7,5.0,0.0,0.0,40.5,87.0
+ * </pre>
+ * A parked heartbeat is a shorter line of device id, time, latitude, longitude and battery, marked
+ * with a last field {@code heartbeat}:
+ * <pre>
+ * 123456789012345,1400000000000,59.4,24.7,87.0,heartbeat
+ * </pre>
+ * The whole batch is written at once and the server answers every line with an {@code OK} line, in
+ * order. A server rejects a line by answering anything else and closing the connection without
+ * storing the lines that followed it, so the acknowledged lines are always a prefix of the batch.
+ */
+public class TcpTransport implements Transport {
+
+    private static final String TAG = TcpTransport.class.getSimpleName();
+
+    private static final int TIMEOUT = 15 * 1000;
+    private static final int BUFFER_SIZE = 4 * 1024;
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final String ACK = "OK";
+
+    private final String host;
+    private final int port;
+
+    private Socket socket;
+    private OutputStream outputStream;
+    private BufferedReader reader;
+
+    private final AsciiBuffer frames = new AsciiBuffer(16 * 1024);
+
+    public TcpTransport(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    public static void appendFrame(AsciiBuffer buffer, PositionBatch batch, int index) {
+        buffer.appendEncoded(batch.getDeviceId(index))
+                .append(',').append(batch.getTime(index))
+                .append(',').append(batch.getLatitude(index), ProtocolFormatter.COORDINATE_DECIMALS)
+                .append(',').append(batch.getLongitude(index), ProtocolFormatter.COORDINATE_DECIMALS)
+                .append(',').append(batch.getHorizontalAccuracy(index), ProtocolFormatter.VALUE_DECIMALS)
+                .append(',').append(batch.getSpeed(index), ProtocolFormatter.VALUE_DECIMALS)
+                .append(',').append(batch.getCourse(index), ProtocolFormatter.VALUE_DECIMALS)
+                .append(',').append(batch.getAltitude(index), ProtocolFormatter.VALUE_DECIMALS)
+                .append(',').append(batch.getBattery(index), ProtocolFormatter.VALUE_DECIMALS);
+    }
+
+    public static void appendHeartbeat(AsciiBuffer buffer, Position position) {
+        buffer.appendEncoded(position.getDeviceId())
+                .append(',').append(position.getTime().getTime())
+                .append(',').append(position.getLatitude(), ProtocolFormatter.COORDINATE_DECIMALS)
+                .append(',').append(position.getLongitude(), ProtocolFormatter.COORDINATE_DECIMALS)
+                .append(',').append(position.getBattery(), ProtocolFormatter.VALUE_DECIMALS)
+                .append(",heartbeat");
+    }
+
+    private void connect() throws IOException {
+        socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(TIMEOUT);
+            socket.connect(new InetSocketAddress(host, port), TIMEOUT);
+            outputStream = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+            reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), ASCII), BUFFER_SIZE);
+        } catch (IOException error) {
+            close();
+            throw error;
+        }
+    }
+
+    @Override
+    public synchronized int send(PositionBatch batch) throws IOException {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        frames.reset();
+        for (int i = 0; i < batch.size(); i++) {
+            appendFrame(frames, batch, i);
+            frames.append('\n');
+        }
+        transmit(batch.size());
+        return frames.length();
+    }
+
+    @Override
+    public synchronized int sendHeartbeat(Position position) throws IOException {
+        frames.reset();
+        appendHeartbeat(frames, position);
+        frames.append('\n');
+        transmit(1);
+        return frames.length();
+    }
+
+    /**
+     * Exchanges the lines in the frame buffer, replacing a connection the server closed while idle.
+     */
+    private void transmit(int count) throws IOException {
+        boolean reused = socket != null;
+        try {
+            exchange(count);
+        } catch (EOFException error) {
+            close();
+            if (!reused) {
+                throw error;
+            }
+            // server dropped the idle connection, nothing was acknowledged
+            Log.d(TAG, "idle connection to " + host + ":" + port + " was closed, reconnecting");
+            try {
+                exchange(count);
+            } catch (IOException secondError) {
+                close();
+                throw secondError;
+            }
+        } catch (IOException error) {
+            close();
+            throw error;
+        }
+    }
+
+    /**
+     * Writes all lines in the frame buffer, then reads their acknowledgements as they arrive.
+     *
+     * @throws EOFException if the connection closed before the first acknowledgement
+     */
+    private void exchange(int count) throws IOException {
+        if (socket == null) {
+            connect();
+        }
+        // acknowledgements are a few bytes each, a whole batch of them fits the socket buffers
+        frames.writeTo(outputStream);
+        outputStream.flush();
+        for (int i = 0; i < count; i++) {
+            String ack = reader.readLine();
+            if (ack == null) {
+                if (i == 0) {
+                    throw new EOFException("Connection closed by server");
+                }
+                throw new PartialAcknowledgementException(i, count);
+            }
+            if (!ack.equals(ACK)) {
+                Log.w(TAG, "position rejected: " + ack);
+                throw new PartialAcknowledgementException(i, count);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException error) {
+                Log.w(TAG, error);
+            }
+            socket = null;
+            outputStream = null;
+            reader = null;
+        }
+    }
+
+}
@@ -18,35 +18,78 @@ package org.traccar.client;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
 import android.os.PowerManager;
 import android.preference.PreferenceManager;
 import android.util.Log;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.Deque;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class TrackingController implements PositionProvider.PositionListener, NetworkManager.NetworkHandler {
 
     private static final String TAG = TrackingController.class.getSimpleName();
     private static final int RETRY_DELAY = 30 * 1000;
     private static final int WAKE_LOCK_TIMEOUT = 60 * 1000;
+    private static final int STOP_TIMEOUT = 5 * 1000;
 
     private NetworkManager.NetworkStatus netStatus;
     private boolean isWaiting;
 
     private Context context;
     private SharedPreferences preferences;
+    private HandlerThread thread;
     private Handler handler;
+    private boolean started;
 
     private String address;
     private int port;
     private int batchReportNum;
     private int reportInterval;
+    private Transport transport;
+    private AdaptiveBatchSize batchSize;
+    private final RetryPolicy retryPolicy = new RetryPolicy();
     private Date lastSuccessReport;
     private Date lastestPositionTime;
 
+    // batches go back to the pool once the store is done with them, so their arrays are reused
+    private final Deque<PositionBatch> freeBatches = new ArrayDeque<>();
+
+    private static class Upload {
+
+        private final PositionBatch batch;
+        private final boolean leased;
+        private boolean sent;
+        // head of the batch the server acknowledged, deleted once the uploads before it are
+        private PositionBatch acknowledged;
+        // retry found the network down, sent again once it is back
+        private boolean stalled;
+
+        public Upload(PositionBatch batch, boolean leased) {
+            this.batch = batch;
+            this.leased = leased;
+        }
+
+    }
+
+    // batches on the wire in lease order, at most window of them
+    private final Deque<Upload> uploads = new ArrayDeque<>();
+    private int window;
+    private boolean reading;
+    private ExecutorService sender;
+
     private PositionProvider positionProvider;
-    private DatabaseHelper databaseHelper;
+    private TrajectorySimplifier simplifier;
+    private AsyncPositionStore positionStore;
     private NetworkManager networkManager;
 
     private PowerManager.WakeLock wakeLock;
@@ -62,15 +105,39 @@ public class TrackingController implements PositionProvider.PositionListener, Ne
     }
 
     public TrackingController(Context context) {
+        this(context, null, null);
+    }
+
+    /**
+     * @param store position store to use, {@code null} for the one chosen in the settings
+     * @param transport transport to use, {@code null} for the one chosen in the settings
+     */
+    TrackingController(Context context, PositionStore store, Transport transport) {
         this.context = context;
-        handler = new Handler();
+        // tracking runs on its own thread so the main thread stays out of the database and network pipeline
+        thread = new HandlerThread(TAG);
+        thread.start();
+        handler = new Handler(thread.getLooper());
         preferences = PreferenceManager.getDefaultSharedPreferences(context);
+        PositionProvider.PositionListener listener = this;
+        int tolerance = Integer.parseInt(preferences.getString(MainActivity.KEY_SIMPLIFY_TOLERANCE, "0"));
+        if (tolerance > 0) {
+            simplifier = new TrajectorySimplifier(this, tolerance, TrajectorySimplifier.DEFAULT_LOOK_AHEAD);
+            listener = simplifier;
+        }
         if (preferences.getString(MainActivity.KEY_PROVIDER, null).equals("mixed")) {
-            positionProvider = new MixedPositionProvider(context, this);
+            positionProvider = new MixedPositionProvider(context, listener);
         } else {
-            positionProvider = new SimplePositionProvider(context, this);
+            positionProvider = new SimplePositionProvider(context, listener);
+        }
+        if (preferences.getBoolean(MainActivity.KEY_SMOOTHING, false)) {
+            // smoothed before the stages comparing against the last reported fix
+            positionProvider.getFilters().insertBefore(PositionFilters.ACCURACY_STEP, new KalmanFilter());
         }
-        databaseHelper = new DatabaseHelper(context);
+        if (store == null) {
+            store = createStore();
+        }
+        positionStore = new AsyncPositionStore(store);
         networkManager = new NetworkManager(context, this);
         netStatus = networkManager.status();
         StatusActivity.addMessage("Connectivity " + netStatus);
@@ -80,44 +147,155 @@ public class TrackingController implements PositionProvider.PositionListener, Ne
         batchReportNum = Integer.parseInt(preferences.getString(MainActivity.KEY_BATCH_REPORT_NUM, null));
         if (batchReportNum < 1)
             batchReportNum = 1;
+        if (preferences.getBoolean(MainActivity.KEY_ADAPTIVE_BATCH, false)) {
+            batchSize = new AdaptiveBatchSize(batchReportNum,
+                    Integer.parseInt(preferences.getString(MainActivity.KEY_MAX_BATCH_SIZE, "500")));
+        } else {
+            batchSize = new AdaptiveBatchSize(batchReportNum, batchReportNum);
+        }
         reportInterval = Integer.parseInt(preferences.getString(MainActivity.KEY_REPORT_INTERVAL, null));
+        if (transport == null) {
+            List<Pair<String, Integer>> addresses = Endpoint.parseAddresses(address, port);
+            if (addresses.size() > 1) {
+                List<Endpoint> endpoints = new ArrayList<>();
+                for (Pair<String, Integer> entry : addresses) {
+                    endpoints.add(new Endpoint(entry.first, entry.second, createTransport(entry.first, entry.second)));
+                }
+                transport = new FailoverTransport(endpoints);
+            } else {
+                transport = createTransport(address, port);
+            }
+        }
+        this.transport = transport;
+        window = Math.max(1, Integer.parseInt(preferences.getString(MainActivity.KEY_UPLOAD_WINDOW, "2")));
+        sender = Executors.newFixedThreadPool(window);
 
         PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
         wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, getClass().getName());
     }
 
+    private PositionStore createStore() {
+        if ("log".equals(preferences.getString(MainActivity.KEY_STORAGE, null))) {
+            return new LogPositionStore(new File(context.getFilesDir(), LogPositionStore.DIRECTORY_NAME));
+        } else {
+            DatabaseHelper databaseHelper = new DatabaseHelper(context, DatabaseHelper.Profile.valueOf(
+                    preferences.getString(MainActivity.KEY_STORAGE_PROFILE, "balanced").toUpperCase(Locale.US)));
+            databaseHelper.setStorageBudget(
+                    Integer.parseInt(preferences.getString(MainActivity.KEY_MAX_POSITIONS,
+                            String.valueOf(DatabaseHelper.DEFAULT_MAX_POSITIONS))),
+                    Long.parseLong(preferences.getString(MainActivity.KEY_MAX_STORAGE,
+                            String.valueOf(DatabaseHelper.DEFAULT_MAX_BYTES / 1024))) * 1024);
+            return databaseHelper;
+        }
+    }
+
+    private Transport createTransport(String address, int port) {
+        if ("tcp".equals(preferences.getString(MainActivity.KEY_TRANSPORT, "http"))) {
+            return new TcpTransport(address, port);
+        } else {
+            PayloadFormatter formatter;
+            String format = preferences.getString(MainActivity.KEY_FORMAT, "query");
+            if ("json".equals(format)) {
+                formatter = new JsonPayloadFormatter();
+            } else if ("delta".equals(format)) {
+                formatter = new DeltaPayloadFormatter();
+            } else {
+                formatter = new QueryPayloadFormatter();
+            }
+            return new HttpTransport(
+                    address, port, preferences.getBoolean(MainActivity.KEY_COMPRESSION, false), formatter);
+        }
+    }
+
+    PositionProvider getPositionProvider() {
+        return positionProvider;
+    }
+
+    Looper getLooper() {
+        return thread.getLooper();
+    }
+
     private boolean saveTraffic() {
         return preferences.getBoolean(MainActivity.KEY_SAVE_TRAFFIC, true);
     }
 
     public void start() {
-        if (netStatus != NetworkManager.NetworkStatus.NotReachable) {
-            read();
-        }
-        positionProvider.startUpdates();
-        networkManager.start();
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (netStatus != NetworkManager.NetworkStatus.NotReachable) {
+                    read();
+                }
+                // location updates are delivered on the tracking thread
+                positionProvider.startUpdates();
+                networkManager.start();
+                started = true;
+            }
+        });
     }
 
     public void stop() {
-        networkManager.stop();
-        positionProvider.stopUpdates();
         handler.removeCallbacksAndMessages(null);
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (started) {
+                    networkManager.stop();
+                    positionProvider.stopUpdates();
+                    Log.i(TAG, "position filters\n" + positionProvider.getFilters());
+                    if (simplifier != null) {
+                        // queues the insert of the held back fix, closing the store still runs it
+                        simplifier.flush();
+                    }
+                }
+                positionStore.close();
+                // handlers of the writes run while closing are not called, nor is their unlock
+                while (wakeLock.isHeld()) {
+                    wakeLock.release();
+                }
+                sender.shutdownNow();
+                transport.close();
+                thread.quit();
+            }
+        });
+        try {
+            thread.join(STOP_TIMEOUT);
+        } catch (InterruptedException e) {
+            Log.w(TAG, e);
+        }
     }
 
     @Override
     public void onPositionUpdate(Position position) {
         StatusActivity.addMessage(context.getString(R.string.status_location_update));
         if (position != null) {
-            write(position);
+            if (position.isHeartbeat()) {
+                sendHeartbeat(position);
+            } else {
+                write(position);
+            }
         }
     }
 
     @Override
-    public void onNetworkUpdate(NetworkManager.NetworkStatus netStatus) {
+    public void onNetworkUpdate(final NetworkManager.NetworkStatus netStatus) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                updateNetwork(netStatus);
+            }
+        });
+    }
+
+    private void updateNetwork(NetworkManager.NetworkStatus netStatus) {
         if (this.netStatus != netStatus) {
             StatusActivity.addMessage("Connectivity " + netStatus);
             boolean wasOnline = this.netStatus != NetworkManager.NetworkStatus.NotReachable;
             this.netStatus = netStatus;
+            retryPolicy.onConnectivityChange();
+            if (netStatus != NetworkManager.NetworkStatus.NotReachable) {
+                resendStalled();
+            }
             if (!wasOnline || netStatus == NetworkManager.NetworkStatus.ReachableViaWiFi && isWaiting && this.saveTraffic())
                 read();
         }
@@ -127,9 +305,11 @@ public class TrackingController implements PositionProvider.PositionListener, Ne
     //
     // State transition examples:
     //
-    // write -> read -> send -> delete -> read
+    // write -> read -> send -> delete + read
+    //
+    // read -> send + read -> send (window full) -> delete + read
     //
-    // read -> send -> retry -> read -> send
+    // read -> send -> retry -> send (same batch) -> delete + read
     //
 
     private void log(String action) {
@@ -146,23 +326,25 @@ public class TrackingController implements PositionProvider.PositionListener, Ne
         }
         Log.d(TAG, action);
     }
-    private void log(String action, List<Position> positions) {
-        if (positions != null) {
-            for (Position position: positions)
-                action += " (" +
-                        "id:" + position.getId() +
-                        " time:" + position.getTime().getTime() +
-                        " lat:" + position.getLatitude() +
-                        " lon:" + position.getLongitude() +
-                        " hacc:" + position.getHorizontalAccuracy() + ")";
+    private void log(String action, PositionBatch batch) {
+        if (!Log.isLoggable(TAG, Log.DEBUG)) {
+            return;
         }
-        Log.d(TAG, action);
+        StringBuilder message = new StringBuilder(action);
+        for (int i = 0; i < batch.size(); i++) {
+            message.append(" (id:").append(batch.getId(i))
+                    .append(" time:").append(batch.getTime(i))
+                    .append(" lat:").append(batch.getLatitude(i))
+                    .append(" lon:").append(batch.getLongitude(i))
+                    .append(" hacc:").append(batch.getHorizontalAccuracy(i)).append(")");
+        }
+        Log.d(TAG, message.toString());
     }
 
     private void write(Position position) {
         log("write", position);
         lock();
-        databaseHelper.insertPositionAsync(position, new DatabaseHelper.DatabaseHandler<Void>() {
+        boolean queued = positionStore.insertPositionAsync(position, new AsyncPositionStore.StoreHandler<Void>() {
             @Override
             public void onComplete(boolean success, Void result) {
                 if (success) {
@@ -174,27 +356,92 @@ public class TrackingController implements PositionProvider.PositionListener, Ne
                 unlock();
             }
         });
+        if (!queued) {
+            // the store is closing, its handler will not run
+            log("write dropped", position);
+            unlock();
+        }
+    }
+
+    private PositionBatch obtainBatch() {
+        PositionBatch batch = freeBatches.poll();
+        return batch != null ? batch : new PositionBatch(batchReportNum);
+    }
+
+    private void recycleBatch(PositionBatch batch) {
+        freeBatches.offer(batch);
     }
 
     private void doRead() {
         log("doRead");
-        lock();
+        if (reading || uploads.size() >= window) {
+            // the pending read or the next completed upload reads again
+            return;
+        }
         final boolean saveTraffic = this.netStatus != NetworkManager.NetworkStatus.ReachableViaWiFi && this.saveTraffic();
-        databaseHelper.selectPositionsAsync(saveTraffic?1:batchReportNum, new DatabaseHelper.DatabaseHandler<List<Position>>() {
-            @Override
-            public void onComplete(boolean success, List<Position> result) {
-                if (success) {
+        if (saveTraffic && !uploads.isEmpty()) {
+            return;
+        }
+        reading = true;
+        lock();
+        final PositionBatch batch = obtainBatch();
+        if (saveTraffic) {
+            // only the latest position is reported until wifi is available
+            positionStore.selectPositionAsync(new AsyncPositionStore.StoreHandler<Position>() {
+                @Override
+                public void onComplete(boolean success, Position result) {
+                    batch.clear();
                     if (result != null) {
-                        if (saveTraffic && lastestPositionTime != null && !result.get(0).getTime().after(lastestPositionTime))
-                            isWaiting = true;
-                        else
-                            send(result);
-                    } else {
-                        isWaiting = true;
+                        batch.add(result);
                     }
+                    onRead(success, true, batch, 1);
+                }
+            });
+        } else {
+            final int limit = batchSize.getSize();
+            positionStore.leasePositionsAsync(limit, batch, new AsyncPositionStore.StoreHandler<PositionBatch>() {
+                @Override
+                public void onComplete(boolean success, PositionBatch result) {
+                    onRead(success, false, batch, limit);
+                }
+            });
+        }
+    }
+
+    private void onRead(boolean success, boolean saveTraffic, PositionBatch batch, int limit) {
+        reading = false;
+        if (success) {
+            if (!batch.isEmpty()) {
+                if (saveTraffic && lastestPositionTime != null && batch.getTime(0) <= lastestPositionTime.getTime()) {
+                    isWaiting = true;
+                    recycleBatch(batch);
                 } else {
-                    retry();
+                    Upload upload = new Upload(batch, !saveTraffic);
+                    uploads.offer(upload);
+                    send(upload);
+                    if (upload.leased && batch.size() == limit) {
+                        // a full batch means there is a backlog, fill the window
+                        read();
+                    }
                 }
+            } else {
+                isWaiting = true;
+                recycleBatch(batch);
+            }
+        } else {
+            recycleBatch(batch);
+            retry();
+        }
+        unlock();
+    }
+
+    private void release(final PositionBatch positions) {
+        log("release", positions);
+        lock();
+        positionStore.releasePositionsAsync(positions, new AsyncPositionStore.StoreHandler<Void>() {
+            @Override
+            public void onComplete(boolean success, Void result) {
+                recycleBatch(positions);
                 unlock();
             }
         });
@@ -222,46 +469,206 @@ public class TrackingController implements PositionProvider.PositionListener, Ne
             doRead();
     }
 
-    private void delete(List<Position> positions) {
+    private void delete(final PositionBatch positions) {
         log("delete", positions);
         lock();
-        if (lastestPositionTime == null || lastestPositionTime.before(positions.get(0).getTime()))
-            lastestPositionTime = positions.get(0).getTime();
-        databaseHelper.deletePositionsAsync(positions, new DatabaseHelper.DatabaseHandler<Void>() {
+        long latestTime = 0;
+        for (int i = 0; i < positions.size(); i++) {
+            latestTime = Math.max(latestTime, positions.getTime(i));
+        }
+        if (lastestPositionTime == null || lastestPositionTime.getTime() < latestTime)
+            lastestPositionTime = new Date(latestTime);
+        positionStore.deletePositionsAsync(positions, new AsyncPositionStore.StoreHandler<Void>() {
             @Override
             public void onComplete(boolean success, Void result) {
                 if (success) {
-                    read();
+                    recycleBatch(positions);
                 } else {
-                    retry();
+                    // whatever is left of the batch will be sent again
+                    release(positions);
                 }
                 unlock();
             }
         });
     }
 
-    private void send(final List<Position> positions) {
-        log("send", positions);
+    private void send(final Upload upload) {
+        if (!retryPolicy.allowAttempt()) {
+            // circuit is open, a connectivity change or the probe that closes it sends the batch
+            upload.stalled = true;
+            return;
+        }
+        log("send", upload.batch);
         lock();
         final Date requestTime = new Date();
-        Pair<String, String> request = ProtocolFormatter.formatRequest(address, port, positions);
-        RequestManager.sendRequestAsync(request, new RequestManager.RequestHandler() {
+        sender.execute(new Runnable() {
             @Override
-            public void onComplete(boolean success) {
-                if (success) {
-                    StatusActivity.addMessage("Location sent");
-                    lastSuccessReport = requestTime;
-                    delete(positions);
-                } else {
-                    StatusActivity.addMessage(context.getString(R.string.status_send_fail));
-                    retry();
+            public void run() {
+                IOException failure = null;
+                long start = System.nanoTime();
+                try {
+                    int bytes = transport.send(upload.batch);
+                    batchSize.onSuccess(upload.batch.size(), bytes, (System.nanoTime() - start) / 1000000);
+                } catch (IOException error) {
+                    Log.w(TAG, error);
+                    batchSize.onFailure(upload.batch.size());
+                    failure = error;
+                } catch (RuntimeException error) {
+                    // a bad row or a malformed reply must not take the upload and its window slot with it
+                    Log.w(TAG, error);
+                    batchSize.onFailure(upload.batch.size());
+                    failure = new IOException(error);
                 }
-                unlock();
+                final IOException result = failure;
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onSent(upload, requestTime, result);
+                    }
+                });
             }
         });
     }
 
+    /**
+     * Sends a parked heartbeat past the store, it only tells the server the device is still there
+     * and a later one replaces it, so one that cannot be sent now is dropped.
+     */
+    private void sendHeartbeat(final Position position) {
+        if (netStatus == NetworkManager.NetworkStatus.NotReachable || retryPolicy.isOpen()) {
+            log("heartbeat dropped", position);
+            return;
+        }
+        log("heartbeat", position);
+        lock();
+        sender.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean success = false;
+                try {
+                    transport.sendHeartbeat(position);
+                    success = true;
+                } catch (IOException | RuntimeException error) {
+                    Log.w(TAG, error);
+                }
+                final boolean result = success;
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (result) {
+                            StatusActivity.addMessage("Heartbeat sent");
+                            onServerReached();
+                        }
+                        unlock();
+                    }
+                });
+            }
+        });
+    }
+
+    private static int getAccepted(IOException error) {
+        return error instanceof PartialAcknowledgementException
+                ? ((PartialAcknowledgementException) error).getAccepted() : 0;
+    }
+
+    /**
+     * @param error {@code null} if the batch was sent
+     */
+    private void onSent(Upload upload, Date requestTime, IOException error) {
+        if (error == null) {
+            StatusActivity.addMessage("Location sent");
+            lastSuccessReport = requestTime;
+            onServerReached();
+            upload.sent = true;
+            deleteAcknowledged();
+            read();
+        } else if (upload.leased && getAccepted(error) > 0) {
+            int accepted = getAccepted(error);
+            StatusActivity.addMessage("Location sent, " + accepted + " of " + upload.batch.size() + " accepted");
+            lastSuccessReport = requestTime;
+            onServerReached();
+            // the acknowledged head waits for earlier uploads like a sent batch, only the rest is sent again
+            if (upload.acknowledged == null) {
+                upload.acknowledged = obtainBatch();
+                upload.acknowledged.clear();
+            }
+            for (int i = 0; i < accepted; i++) {
+                upload.acknowledged.add(upload.batch, i);
+            }
+            upload.batch.removeFirst(accepted);
+            deleteAcknowledged();
+            send(upload);
+        } else {
+            StatusActivity.addMessage(context.getString(R.string.status_send_fail));
+            RetryPolicy.Failure failure = RetryPolicy.classify(error);
+            long delay = retryPolicy.onFailure(failure);
+            log("failure " + failure + ", retry in " + delay / 1000 + " s");
+            if (upload.leased) {
+                // only the failed batch is sent again, it keeps its lease and its place in the window
+                retry(upload, delay);
+            } else {
+                uploads.remove(upload);
+                recycleBatch(upload.batch);
+                retry(delay);
+            }
+        }
+        unlock();
+    }
+
+    /**
+     * Deletes what the server acknowledged in lease order, a later upload waits for earlier ones.
+     */
+    private void deleteAcknowledged() {
+        while (!uploads.isEmpty()) {
+            Upload upload = uploads.peek();
+            if (upload.acknowledged != null) {
+                delete(upload.acknowledged);
+                upload.acknowledged = null;
+            }
+            if (!upload.sent) {
+                break;
+            }
+            delete(uploads.poll().batch);
+        }
+    }
+
+    private void onServerReached() {
+        boolean wasOpen = retryPolicy.isOpen();
+        retryPolicy.onSuccess();
+        if (wasOpen) {
+            // the probe got through, batches held back by the open circuit go out again
+            resendStalled();
+        }
+    }
+
+    private void retry(final Upload upload, long delay) {
+        log("retry", upload.batch);
+        handler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                if (netStatus != NetworkManager.NetworkStatus.NotReachable) {
+                    send(upload);
+                } else {
+                    upload.stalled = true;
+                }
+            }
+        }, delay);
+    }
+
+    private void resendStalled() {
+        for (Upload upload : uploads) {
+            if (upload.stalled) {
+                upload.stalled = false;
+                send(upload);
+            }
+        }
+    }
+
     private void retry() {
+        retry(RETRY_DELAY);
+    }
+
+    private void retry(long delay) {
         log("retry");
         handler.postDelayed(new Runnable() {
             @Override
@@ -270,7 +677,7 @@ public class TrackingController implements PositionProvider.PositionListener, Ne
                     read();
                 }
             }
-        }, RETRY_DELAY);
+        }, delay);
     }
 
 }
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2015 Anton Tananaev (anton.tananaev@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.client;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming line simplification between a position provider and the controller. Fixes are held
+ * back while every one of them stays within a corridor around the line from the last kept fix to
+ * the newest one; a fix leaving the corridor, such as one after a turn, keeps the fix before it.
+ * The look-ahead window bounds how many fixes are held back, so a long straight road still gets a
+ * kept fix every so often. Heartbeats of a parked device are always kept right away.
+ */
+public class TrajectorySimplifier implements PositionProvider.PositionListener {
+
+    public static final int DEFAULT_LOOK_AHEAD = 20;
+
+    private static final double EARTH_RADIUS = 6371000;
+
+    private final PositionProvider.PositionListener listener;
+    private final double tolerance;
+    private final int lookAhead;
+
+    private Position anchor;
+    private final List<Position> pending = new ArrayList<>();
+
+    private int receivedCount;
+    private int keptCount;
+
+    /**
+     * @param tolerance half width of the corridor in meters
+     * @param lookAhead maximum number of fixes held back
+     */
+    public TrajectorySimplifier(PositionProvider.PositionListener listener, double tolerance, int lookAhead) {
+        this.listener = listener;
+        this.tolerance = tolerance;
+        this.lookAhead = lookAhead;
+    }
+
+    public int getReceivedCount() {
+        return receivedCount;
+    }
+
+    public int getKeptCount() {
+        return keptCount;
+    }
+
+    @Override
+    public void onPositionUpdate(Position position) {
+        if (position == null) {
+            return;
+        }
+        receivedCount += 1;
+        if (position.isHeartbeat()) {
+            // heartbeats are due every period, so they and the fixes before them are not held back
+            flush();
+            keep(position);
+        } else if (anchor == null) {
+            keep(position);
+        } else if (isWithinCorridor(position)) {
+            pending.add(position);
+            if (pending.size() >= lookAhead) {
+                keep(position);
+            }
+        } else {
+            // the newest fix needs a bend, the one before it is where the track turned
+            keep(pending.get(pending.size() - 1));
+            pending.add(position);
+        }
+    }
+
+    /**
+     * Passes on the latest held back fix, so the track ends where the device is.
+     */
+    public void flush() {
+        if (!pending.isEmpty()) {
+            keep(pending.get(pending.size() - 1));
+        }
+    }
+
+    private void keep(Position position) {
+        anchor = position;
+        pending.clear();
+        keptCount += 1;
+        listener.onPositionUpdate(position);
+    }
+
+    private boolean isWithinCorridor(Position end) {
+        double scale = Math.cos(Math.toRadians(anchor.getLatitude()));
+        double endX = x(end, scale);
+        double endY = y(end);
+        for (Position position : pending) {
+            if (distanceToSegment(x(position, scale), y(position), endX, endY) > tolerance) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private double x(Position position, double scale) {
+        return Math.toRadians(position.getLongitude() - anchor.getLongitude()) * scale * EARTH_RADIUS;
+    }
+
+    private double y(Position position) {
+        return Math.toRadians(position.getLatitude() - anchor.getLatitude()) * EARTH_RADIUS;
+    }
+
+    /**
+     * Distance from a point to the segment starting at the origin, all in meters.
+     */
+    static double distanceToSegment(double x, double y, double endX, double endY) {
+        double length = endX * endX + endY * endY;
+        double t = length > 0 ? Math.max(0, Math.min(1, (x * endX + y * endY) / length)) : 0;
+        double dx = x - t * endX;
+        double dy = y - t * endY;
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+}
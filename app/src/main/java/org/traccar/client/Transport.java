@@ -0,0 +1,47 @@
+/*
+ * Copyright 2015 Anton Tananaev (anton.tananaev@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.client;
+
+import java.io.IOException;
+
+/**
+ * Delivers batches to the server. Implementations block the calling thread and may be called
+ * from several sender threads at once.
+ */
+public interface Transport {
+
+    /**
+     * Returns once the server has accepted every position of the batch.
+     *
+     * @return number of bytes sent, before any compression
+     * @throws IOException if the server did not accept the whole batch
+     */
+    int send(PositionBatch batch) throws IOException;
+
+    /**
+     * Sends the heartbeat of a parked device. Heartbeats are not stored, a failed one is dropped.
+     *
+     * @return number of bytes sent
+     * @throws IOException if the server did not accept the heartbeat
+     */
+    int sendHeartbeat(Position position) throws IOException;
+
+    /**
+     * Closes connections kept between batches.
+     */
+    void close();
+
+}
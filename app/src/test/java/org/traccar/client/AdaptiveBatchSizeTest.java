@@ -0,0 +1,115 @@
+package org.traccar.client;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class AdaptiveBatchSizeTest {
+
+    private static final int ROUNDS = 200;
+
+    private static PositionBatch createBatch(int count) {
+        PositionBatch batch = new PositionBatch(count);
+        for (int i = 0; i < count; i++) {
+            batch.add(i + 1, "123456789012345", i * 1000L, 10 + i * 0.0001, 20 - i * 0.0001, 5.0, 100.0, 12.5, 90.0, 50.0);
+        }
+        return batch;
+    }
+
+    /**
+     * Sends an endless backlog and returns the average batch size over the second half of the run.
+     */
+    private static int simulate(FakeTransport transport, AdaptiveBatchSize batchSize) {
+        long total = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            int size = batchSize.getSize();
+            if (round >= ROUNDS / 2) {
+                total += size;
+            }
+            try {
+                int bytes = transport.send(createBatch(size));
+                batchSize.onSuccess(size, bytes, transport.getLastTime());
+            } catch (IOException error) {
+                batchSize.onFailure(size);
+            }
+        }
+        return (int) (total / (ROUNDS / 2));
+    }
+
+    // delivered positions per virtual second
+    private static double goodput(FakeTransport transport) {
+        return transport.getDelivered() * 1000.0 / transport.getTime();
+    }
+
+    @Test
+    public void testWifi() throws Exception {
+
+        FakeTransport transport = new FakeTransport(30, 2000000, 0, 1);
+        AdaptiveBatchSize batchSize = new AdaptiveBatchSize(1, 500);
+        int average = simulate(transport, batchSize);
+        assertEquals(500, average);
+        assertTrue(batchSize.getThroughput() > 100000);
+
+        FakeTransport fixed = new FakeTransport(30, 2000000, 0, 1);
+        simulate(fixed, new AdaptiveBatchSize(1, 1));
+
+        assertTrue(goodput(transport) > goodput(fixed) * 10);
+
+    }
+
+    @Test
+    public void testSlowLink() throws Exception {
+
+        // 2G: long round trips, a few kilobytes per second, lossy
+        FakeTransport transport = new FakeTransport(800, 4000, 0.05, 1);
+        AdaptiveBatchSize batchSize = new AdaptiveBatchSize(1, 500);
+        int average = simulate(transport, batchSize);
+        assertTrue(average < 50);
+        assertTrue(batchSize.getRoundTripTime() > 800);
+        assertTrue(batchSize.getFailureRate() > 0);
+
+        FakeTransport fixed = new FakeTransport(800, 4000, 0.05, 1);
+        simulate(fixed, new AdaptiveBatchSize(500, 500));
+
+        assertTrue(goodput(transport) > goodput(fixed) * 1.5);
+
+    }
+
+    @Test
+    public void testRecovery() throws Exception {
+
+        AdaptiveBatchSize batchSize = new AdaptiveBatchSize(10, 400);
+        assertEquals(10, batchSize.getSize());
+
+        batchSize.onSuccess(10, 1500, 100);
+        assertEquals(20, batchSize.getSize());
+        batchSize.onSuccess(20, 3000, 100);
+        assertEquals(40, batchSize.getSize());
+
+        // a small batch from a short backlog does not grow the size
+        batchSize.onSuccess(3, 450, 100);
+        assertEquals(40, batchSize.getSize());
+
+        batchSize.onFailure(40);
+        assertEquals(20, batchSize.getSize());
+        batchSize.onFailure(20);
+        batchSize.onFailure(10);
+        assertEquals(10, batchSize.getSize());
+
+        // growth resumes once the failures have faded out
+        for (int i = 0; i < 20; i++) {
+            batchSize.onSuccess(batchSize.getSize(), batchSize.getSize() * 150, 100);
+        }
+        assertEquals(400, batchSize.getSize());
+
+    }
+
+}
@@ -0,0 +1,105 @@
+package org.traccar.client;
+
+import android.location.Location;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class AdaptiveIntervalTest {
+
+    private static final long MIN_INTERVAL = 5 * 1000;
+
+    private static Location createLocation(PositionBatch batch, int index) {
+        Location location = new Location("gps");
+        location.setTime(batch.getTime(index));
+        location.setLatitude(batch.getLatitude(index));
+        location.setLongitude(batch.getLongitude(index));
+        location.setAccuracy((float) batch.getHorizontalAccuracy(index));
+        location.setSpeed((float) (batch.getSpeed(index) / 1.943844));
+        return location;
+    }
+
+    private static Location createLocation(long time, double speed) {
+        Location location = new Location("gps");
+        location.setTime(time);
+        location.setAccuracy(5);
+        location.setSpeed((float) speed);
+        return location;
+    }
+
+    @Test
+    public void testTrace() throws Exception {
+
+        // fixes come only as often as the current interval asks for
+        PositionBatch trace = TestTrace.load();
+        AdaptiveInterval adaptiveInterval = new AdaptiveInterval(MIN_INTERVAL);
+        int samples = 0;
+        long lastSample = 0;
+        long maxMovingGap = 0;
+        long lastMoving = 0;
+        for (int i = 0; i < trace.size(); i++) {
+            long time = trace.getTime(i);
+            boolean moving = trace.getSpeed(i) / 1.943844 > 5;
+            if (lastSample == 0 || time - lastSample >= adaptiveInterval.getInterval()) {
+                adaptiveInterval.update(createLocation(trace, i));
+                samples += 1;
+                lastSample = time;
+            }
+            if (moving) {
+                // time a driving vehicle went without a fix
+                if (lastMoving > 0) {
+                    maxMovingGap = Math.max(maxMovingGap, time - lastSample);
+                }
+                lastMoving = time;
+            }
+        }
+
+        assertTrue(samples < trace.size() * 2 / 3);
+        assertTrue(adaptiveInterval.getChangeCount() < 20);
+        // a trip starting while parked is noticed within one stationary interval
+        assertTrue(maxMovingGap <= AdaptiveInterval.MotionState.STATIONARY.getInterval());
+        assertEquals(AdaptiveInterval.MotionState.STATIONARY, adaptiveInterval.getState());
+
+    }
+
+    @Test
+    public void testHysteresis() throws Exception {
+
+        AdaptiveInterval adaptiveInterval = new AdaptiveInterval(MIN_INTERVAL);
+        long time = 0;
+        for (int i = 0; i < 5; i++) {
+            adaptiveInterval.update(createLocation(time += 15000, 1.5));
+        }
+        assertEquals(AdaptiveInterval.MotionState.WALKING, adaptiveInterval.getState());
+        assertEquals(15000, adaptiveInterval.getInterval());
+
+        // speed going back and forth around the boundary changes the state once
+        for (int i = 0; i <= 20; i++) {
+            adaptiveInterval.update(createLocation(time += 5000, i % 2 == 0 ? 3.6 : 2.4));
+        }
+        assertEquals(AdaptiveInterval.MotionState.DRIVING, adaptiveInterval.getState());
+        assertEquals(2, adaptiveInterval.getChangeCount());
+
+        // slowing down needs a few fixes in a row, stopping at once goes straight to stationary
+        assertFalse(adaptiveInterval.update(createLocation(time += 5000, 0)));
+        assertFalse(adaptiveInterval.update(createLocation(time += 5000, 0)));
+        assertTrue(adaptiveInterval.update(createLocation(time += 5000, 0)));
+        assertEquals(AdaptiveInterval.MotionState.STATIONARY, adaptiveInterval.getState());
+        assertEquals(60000, adaptiveInterval.getInterval());
+
+        // moving again is picked up by the first fix
+        assertTrue(adaptiveInterval.update(createLocation(time += 60000, 30)));
+        assertEquals(AdaptiveInterval.MotionState.HIGH_SPEED, adaptiveInterval.getState());
+        assertEquals(MIN_INTERVAL, adaptiveInterval.getInterval());
+
+    }
+
+}
@@ -0,0 +1,280 @@
+package org.traccar.client;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class AsyncPositionStoreTest {
+
+    // Records operations in the order the worker runs them, inserting id 0 blocks until released
+    private static class RecordingStore implements PositionStore {
+
+        private final List<String> operations = Collections.synchronizedList(new ArrayList<String>());
+        private final CountDownLatch blocked = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final CountDownLatch closed = new CountDownLatch(1);
+        private final Position latest = new Position();
+
+        @Override
+        public void insertPosition(Position position) {
+            if (position.getId() == 0) {
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException error) {
+                    throw new RuntimeException(error);
+                }
+            }
+            operations.add("insert " + position.getId());
+        }
+
+        @Override
+        public void flush() {
+            operations.add("flush");
+        }
+
+        @Override
+        public Position selectPosition() {
+            operations.add("select");
+            return latest;
+        }
+
+        @Override
+        public int leasePositions(int limit, PositionBatch batch) {
+            operations.add("lease");
+            batch.clear();
+            return 0;
+        }
+
+        @Override
+        public void releasePositions(PositionBatch batch) {
+            operations.add("release");
+        }
+
+        @Override
+        public void deletePosition(long id) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void deletePositions(PositionBatch batch) {
+            operations.add("delete");
+        }
+
+        @Override
+        public void close() {
+            operations.add("close");
+            closed.countDown();
+        }
+
+    }
+
+    private static class Recorder<T> implements AsyncPositionStore.StoreHandler<T> {
+
+        private final List<T> results = new ArrayList<>();
+        private final List<Thread> threads = new ArrayList<>();
+
+        @Override
+        public void onComplete(boolean success, T result) {
+            assertTrue(success);
+            results.add(result);
+            threads.add(Thread.currentThread());
+        }
+
+    }
+
+    private RecordingStore store;
+    private AsyncPositionStore asyncStore;
+
+    @Before
+    public void setUp() throws Exception {
+        // results stay queued on the looper until the test runs it
+        ShadowLooper.pauseMainLooper();
+        store = new RecordingStore();
+        asyncStore = new AsyncPositionStore(store);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        store.release.countDown();
+        asyncStore.close();
+        ShadowLooper.unPauseMainLooper();
+    }
+
+    private static Position createPosition(long id) {
+        Position position = new Position();
+        position.setId(id);
+        return position;
+    }
+
+    private void awaitOperations(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (store.operations.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(count, store.operations.size());
+    }
+
+    /**
+     * Runs the looper until the worker has posted {@code count} results, it posts them after the
+     * operation returns.
+     */
+    private static void awaitResults(Recorder<?> recorder, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        ShadowLooper.runUiThreadTasks();
+        while (recorder.results.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+            ShadowLooper.runUiThreadTasks();
+        }
+        assertEquals(count, recorder.results.size());
+    }
+
+    @Test
+    public void testOrder() throws Exception {
+
+        Recorder<Void> recorder = new Recorder<>();
+        PositionBatch batch = new PositionBatch();
+        asyncStore.insertPositionAsync(createPosition(1), recorder);
+        asyncStore.insertPositionAsync(createPosition(2), recorder);
+        asyncStore.deletePositionsAsync(batch, recorder);
+        asyncStore.releasePositionsAsync(batch, recorder);
+        asyncStore.insertPositionAsync(createPosition(3), recorder);
+        awaitOperations(5);
+
+        List<String> expected = new ArrayList<>();
+        expected.add("insert 1");
+        expected.add("insert 2");
+        expected.add("delete");
+        expected.add("release");
+        expected.add("insert 3");
+        assertEquals(expected, store.operations);
+
+    }
+
+    @Test
+    public void testCoalescing() throws Exception {
+
+        asyncStore.insertPositionAsync(createPosition(0), null);
+        assertTrue(store.blocked.await(5, TimeUnit.SECONDS));
+
+        // selects waiting behind the blocked insert run once and share the result
+        Recorder<Position> recorder = new Recorder<>();
+        for (int i = 0; i < 3; i++) {
+            asyncStore.selectPositionAsync(recorder);
+        }
+        store.release.countDown();
+        awaitOperations(2);
+        assertEquals("select", store.operations.get(1));
+
+        awaitResults(recorder, 3);
+        for (Position result : recorder.results) {
+            assertSame(store.latest, result);
+        }
+
+    }
+
+    @Test
+    public void testHandlerLooper() throws Exception {
+
+        Recorder<Void> recorder = new Recorder<>();
+        asyncStore.insertPositionAsync(createPosition(1), recorder);
+        awaitOperations(1);
+
+        // the worker is done, the handler waits for the submitting thread's looper
+        Thread.sleep(10);
+        assertEquals(0, recorder.results.size());
+        awaitResults(recorder, 1);
+        assertSame(Thread.currentThread(), recorder.threads.get(0));
+
+    }
+
+    @Test
+    public void testCloseWhileInserting() throws Exception {
+
+        for (int round = 0; round < 200; round++) {
+            final RecordingStore store = new RecordingStore();
+            final AsyncPositionStore asyncStore = new AsyncPositionStore(store);
+            final AtomicInteger accepted = new AtomicInteger();
+            Thread writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    // ids from 1, 0 blocks the store
+                    for (int i = 1; asyncStore.insertPositionAsync(createPosition(i), null); i++) {
+                        accepted.incrementAndGet();
+                    }
+                }
+            });
+            writer.start();
+            while (accepted.get() < round % 10) {
+                Thread.yield();
+            }
+            asyncStore.close();
+            writer.join(5000);
+
+            // every insert queued before closing is stored, whenever the worker noticed it
+            assertEquals(accepted.get() + 2, store.operations.size());
+            assertEquals("close", store.operations.get(store.operations.size() - 1));
+        }
+
+    }
+
+    @Test
+    public void testCloseDrainsWrites() throws Exception {
+
+        asyncStore.insertPositionAsync(createPosition(0), null);
+        assertTrue(store.blocked.await(5, TimeUnit.SECONDS));
+
+        Recorder<Void> recorder = new Recorder<>();
+        asyncStore.insertPositionAsync(createPosition(1), recorder);
+        asyncStore.selectPositionAsync(null);
+        asyncStore.leasePositionsAsync(10, new PositionBatch(), null);
+        asyncStore.deletePositionsAsync(new PositionBatch(), recorder);
+
+        Thread closer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                asyncStore.close();
+            }
+        });
+        closer.start();
+        while (closer.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+        asyncStore.insertPositionAsync(createPosition(2), recorder);
+        store.release.countDown();
+        closer.join(5000);
+        assertTrue(store.closed.await(0, TimeUnit.SECONDS));
+
+        // queued writes are stored, reads and leases are dropped, nothing is accepted any more
+        List<String> expected = new ArrayList<>();
+        expected.add("insert 0");
+        expected.add("insert 1");
+        expected.add("delete");
+        expected.add("flush");
+        expected.add("close");
+        assertEquals(expected, store.operations);
+
+        // nobody is left to handle results after closing
+        ShadowLooper.runUiThreadTasks();
+        assertEquals(0, recorder.results.size());
+
+    }
+
+}
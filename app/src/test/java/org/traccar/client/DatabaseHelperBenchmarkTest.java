@@ -0,0 +1,241 @@
+package org.traccar.client;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.location.Location;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class DatabaseHelperBenchmarkTest {
+
+    private static final int PAGE_SIZE = 500;
+
+    private DatabaseHelper createDatabase(int count) {
+        DatabaseHelper databaseHelper = new DatabaseHelper(RuntimeEnvironment.application);
+        SQLiteDatabase db = databaseHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < count; i++) {
+                Location location = new Location("gps");
+                location.setLatitude(i * 0.0001);
+                location.setLongitude(i * 0.0001);
+                Position position = new Position("123456789012345", location, 50);
+                position.setTime(new Date(i * 1000L));
+                databaseHelper.insertPosition(position);
+            }
+            databaseHelper.flush();
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return databaseHelper;
+    }
+
+    // Reading path used before leased batches were introduced, only the access pattern is kept
+    private static List<Position> selectPositionsLegacy(SQLiteDatabase db, long fetchLimit) {
+        return readPositionsLegacy(db.rawQuery("SELECT position.*, device.deviceId FROM position " +
+                "LEFT JOIN device ON device.id = position.device ORDER BY position.id DESC LIMIT " + fetchLimit, null));
+    }
+
+    private static List<Position> readPositionsLegacy(Cursor cursor) {
+        try {
+            List<Position> positions = new LinkedList<>();
+            cursor.moveToFirst();
+            while (!cursor.isAfterLast()) {
+                Position position = new Position();
+                position.setId(cursor.getLong(cursor.getColumnIndex("id")));
+                position.setDeviceId(cursor.getString(cursor.getColumnIndex("deviceId")));
+                position.setTime(new Date(cursor.getLong(cursor.getColumnIndex("time"))));
+                position.setLatitude(cursor.getDouble(cursor.getColumnIndex("latitude")));
+                position.setLongitude(cursor.getDouble(cursor.getColumnIndex("longitude")));
+                position.setHorizontalAccuracy(cursor.getDouble(cursor.getColumnIndex("horizontalAccuracy")));
+                position.setAltitude(cursor.getDouble(cursor.getColumnIndex("altitude")));
+                position.setSpeed(cursor.getDouble(cursor.getColumnIndex("speed")));
+                position.setCourse(cursor.getDouble(cursor.getColumnIndex("course")));
+                position.setBattery(cursor.getDouble(cursor.getColumnIndex("battery")));
+                positions.add(position);
+                cursor.moveToNext();
+            }
+            return positions;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Rows in the order of the projection the leased reader expects
+    private static MatrixCursor createCursor(int first, int count) {
+        MatrixCursor cursor = new MatrixCursor(new String[] { "id", "deviceId", "time", "latitude", "longitude",
+                "horizontalAccuracy", "altitude", "speed", "course", "battery", "device", "lease" }, count);
+        for (int i = first; i < first + count; i++) {
+            cursor.addRow(new Object[] { (long) i + 1, "123456789012345", i * 1000L,
+                    PositionEncoding.encodeCoordinate(i * 0.0001), PositionEncoding.encodeCoordinate(i * 0.0001),
+                    PositionEncoding.encodeAccuracy(50), 0L, 0L, 0L, PositionEncoding.encodeBattery(50), 1L, 0L });
+        }
+        return cursor;
+    }
+
+    private static long getAllocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Compares bytes allocated per row by the readers alone, the SQLite shadow allocates far more
+     * than a device does and would hide the difference.
+     */
+    private static void compareReaders(int count) {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+
+        MatrixCursor legacyCursor = createCursor(0, count);
+        List<MatrixCursor> pages = new ArrayList<>();
+        for (int i = 0; i < count; i += PAGE_SIZE) {
+            pages.add(createCursor(i, Math.min(PAGE_SIZE, count - i)));
+        }
+        PositionBatch batch = new PositionBatch(PAGE_SIZE);
+
+        long legacyStart = getAllocatedBytes();
+        List<Position> legacy = readPositionsLegacy(legacyCursor);
+        long legacyAllocated = getAllocatedBytes() - legacyStart;
+
+        int total = 0;
+        long leaseStart = getAllocatedBytes();
+        for (MatrixCursor page : pages) {
+            total += DatabaseHelper.readPositions(page, batch, true);
+        }
+        long leaseAllocated = getAllocatedBytes() - leaseStart;
+
+        assertEquals(count, legacy.size());
+        assertEquals(count, total);
+        // the legacy reader allocates a position, a date and a list node for every row
+        assertTrue(leaseAllocated * 10 < legacyAllocated);
+    }
+
+    private void benchmark(int count) {
+        compareReaders(count);
+
+        DatabaseHelper databaseHelper = createDatabase(count);
+
+        List<Position> legacy = selectPositionsLegacy(databaseHelper.getReadableDatabase(), count);
+
+        PositionBatch batch = new PositionBatch(PAGE_SIZE);
+        int total = 0;
+        int read;
+        while ((read = databaseHelper.leasePositions(PAGE_SIZE, batch)) > 0) {
+            total += read;
+        }
+
+        assertEquals(count, legacy.size());
+        assertEquals(count, total);
+    }
+
+    private static final int PROFILE_COUNT = 20000;
+
+    /**
+     * Checkpoints the write-ahead log.
+     *
+     * @return frames the log held, pages written since the previous checkpoint
+     */
+    private static long checkpoint(DatabaseHelper databaseHelper) {
+        Cursor cursor = databaseHelper.getWritableDatabase().rawQuery("PRAGMA wal_checkpoint(PASSIVE)", null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(1);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Timings are not stable under Robolectric and syncs cost nothing on its temporary files, so every
+     * step is measured by the log frames it leaves to the next checkpoint instead. Fewer frames mean
+     * the profile already copied pages into the database file and synced it during the step.
+     *
+     * @return pending log frames after insert, select by lease and delete
+     */
+    private long[] benchmarkProfile(DatabaseHelper.Profile profile) {
+        RuntimeEnvironment.application.deleteDatabase(DatabaseHelper.DATABASE_NAME);
+        DatabaseHelper databaseHelper = new DatabaseHelper(RuntimeEnvironment.application, profile);
+        checkpoint(databaseHelper);
+        long[] frames = new long[3];
+
+        for (int i = 0; i < PROFILE_COUNT; i++) {
+            Location location = new Location("gps");
+            location.setLatitude(i * 0.0001);
+            location.setLongitude(i * 0.0001);
+            Position position = new Position("123456789012345", location, 50);
+            position.setTime(new Date(i * 1000L));
+            databaseHelper.insertPosition(position);
+        }
+        databaseHelper.flush();
+        frames[0] = checkpoint(databaseHelper);
+
+        List<PositionBatch> batches = new ArrayList<>();
+        int total = 0;
+        PositionBatch batch = new PositionBatch(PAGE_SIZE);
+        while (databaseHelper.leasePositions(PAGE_SIZE, batch) > 0) {
+            total += batch.size();
+            batches.add(batch);
+            batch = new PositionBatch(PAGE_SIZE);
+        }
+        assertEquals(PROFILE_COUNT, total);
+        frames[1] = checkpoint(databaseHelper);
+
+        for (PositionBatch leased : batches) {
+            databaseHelper.deletePositions(leased);
+        }
+        frames[2] = checkpoint(databaseHelper);
+
+        assertEquals(null, databaseHelper.selectPosition());
+        databaseHelper.close();
+        return frames;
+    }
+
+    @Test
+    public void benchmarkProfiles() throws Exception {
+        long[] durable = benchmarkProfile(DatabaseHelper.Profile.DURABLE);
+        long[] balanced = benchmarkProfile(DatabaseHelper.Profile.BALANCED);
+        long[] fast = benchmarkProfile(DatabaseHelper.Profile.FAST);
+        for (int step = 0; step < 3; step++) {
+            assertTrue(durable[step] <= balanced[step]);
+            assertTrue(balanced[step] <= fast[step]);
+        }
+        // a bulk insert is checkpointed many times by the durable profile and not at all by the fast one
+        assertTrue(durable[0] * 10 < fast[0]);
+    }
+
+    @Test
+    public void benchmark1k() throws Exception {
+        benchmark(1000);
+    }
+
+    @Test
+    public void benchmark10k() throws Exception {
+        benchmark(10000);
+    }
+
+    @Test
+    public void benchmark100k() throws Exception {
+        benchmark(100000);
+    }
+
+}
@@ -1,6 +1,8 @@
 
 package org.traccar.client;
 
+import android.content.Context;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.location.Location;
 
@@ -12,6 +14,7 @@ import org.robolectric.annotation.Config;
 
 import java.util.Date;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 
@@ -43,4 +46,77 @@ public class DatabaseHelperTest {
 
     }
 
+    @Test
+    public void testWriteBuffer() throws Exception {
+
+        DatabaseHelper databaseHelper = new DatabaseHelper(RuntimeEnvironment.application);
+
+        for (int i = 0; i < 3; i++) {
+            Position position = new Position("123456789012345", new Location("gps"), 0);
+            position.setTime(new Date(i));
+            databaseHelper.insertPosition(position);
+        }
+
+        SQLiteDatabase db = databaseHelper.getReadableDatabase();
+        assertEquals(0, DatabaseUtils.queryNumEntries(db, "position"));
+
+        databaseHelper.flush();
+        assertEquals(3, DatabaseUtils.queryNumEntries(db, "position"));
+
+    }
+
+    @Test
+    public void testProfile() throws Exception {
+
+        DatabaseHelper databaseHelper = new DatabaseHelper(RuntimeEnvironment.application, DatabaseHelper.Profile.FAST);
+        SQLiteDatabase db = databaseHelper.getWritableDatabase();
+        assertEquals("wal", DatabaseUtils.stringForQuery(db, "PRAGMA journal_mode", null));
+        assertEquals(0, DatabaseUtils.longForQuery(db, "PRAGMA synchronous", null));
+        assertEquals(4000, DatabaseUtils.longForQuery(db, "PRAGMA wal_autocheckpoint", null));
+        databaseHelper.close();
+
+    }
+
+    @Test
+    public void testUpgrade() throws Exception {
+
+        SQLiteDatabase db = RuntimeEnvironment.application.openOrCreateDatabase(
+                DatabaseHelper.DATABASE_NAME, Context.MODE_PRIVATE, null);
+        db.execSQL("CREATE TABLE position (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "deviceId TEXT," +
+                "time INTEGER," +
+                "latitude REAL," +
+                "longitude REAL," +
+                "horizontalAccuracy REAL," +
+                "altitude REAL," +
+                "speed REAL," +
+                "course REAL," +
+                "battery REAL)");
+        db.execSQL("INSERT INTO position VALUES (5, '123456789012345', 1000, 55.7558261, 37.6172999, 12.3, -4.5, 10.26, 359.97, 87.5)");
+        db.setVersion(1);
+        db.close();
+
+        DatabaseHelper databaseHelper = new DatabaseHelper(RuntimeEnvironment.application);
+
+        Position position = databaseHelper.selectPosition();
+        assertEquals(5, position.getId());
+        assertEquals("123456789012345", position.getDeviceId());
+        assertEquals(1000, position.getTime().getTime());
+        assertEquals(55.7558261, position.getLatitude(), 0);
+        assertEquals(37.6172999, position.getLongitude(), 0);
+        assertEquals(12.3, position.getHorizontalAccuracy(), 0);
+        assertEquals(-4.5, position.getAltitude(), 0);
+        assertEquals(10.3, position.getSpeed(), 0);
+        assertEquals(0.0, position.getCourse(), 0);
+        assertEquals(87.5, position.getBattery(), 0);
+
+        databaseHelper.insertPosition(position);
+        assertEquals(6, databaseHelper.selectPosition().getId());
+
+        PositionBatch batch = new PositionBatch();
+        assertEquals(2, databaseHelper.leasePositions(10, batch));
+
+    }
+
 }
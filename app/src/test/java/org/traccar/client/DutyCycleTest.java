@@ -0,0 +1,225 @@
+package org.traccar.client;
+
+import android.content.Context;
+import android.content.Intent;
+import android.location.Location;
+import android.os.BatteryManager;
+import android.preference.PreferenceManager;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class DutyCycleTest {
+
+    // requests this far apart keep the receiver on, longer ones let it sleep between fixes
+    private static final long CONTINUOUS_INTERVAL = 30 * 1000;
+    // receiver time a fix costs after sleeping
+    private static final long FIX_TIME = 15 * 1000;
+    private static final long PERIOD = 300 * 1000;
+
+    private static class ReplayPositionProvider extends PositionProvider {
+
+        private long requestedInterval;
+        private int requestCount;
+
+        public ReplayPositionProvider(Context context, PositionListener listener) {
+            super(context, listener);
+        }
+
+        @Override
+        public void startUpdates() {
+            updateInterval();
+        }
+
+        @Override
+        public void stopUpdates() {
+        }
+
+        @Override
+        protected void updateInterval() {
+            requestedInterval = getInterval();
+            requestCount += 1;
+        }
+
+    }
+
+    private static class Result implements PositionProvider.PositionListener {
+
+        private final List<Position> positions = new ArrayList<>();
+        private long gpsTime;
+        private int requestCount;
+
+        @Override
+        public void onPositionUpdate(Position position) {
+            positions.add(position);
+        }
+
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        Intent batteryIntent = new Intent(Intent.ACTION_BATTERY_CHANGED);
+        batteryIntent.putExtra(BatteryManager.EXTRA_LEVEL, 50);
+        batteryIntent.putExtra(BatteryManager.EXTRA_SCALE, 100);
+        RuntimeEnvironment.application.sendStickyBroadcast(batteryIntent);
+    }
+
+    private static Location createLocation(PositionBatch batch, int index) {
+        Location location = new Location("gps");
+        location.setTime(batch.getTime(index));
+        location.setLatitude(batch.getLatitude(index));
+        location.setLongitude(batch.getLongitude(index));
+        location.setAccuracy((float) batch.getHorizontalAccuracy(index));
+        location.setSpeed((float) (batch.getSpeed(index) / 1.943844));
+        location.setBearing((float) batch.getCourse(index));
+        return location;
+    }
+
+    /**
+     * Replays the drive, park, walk and highway trace, delivering fixes as often as the provider
+     * asks for them.
+     */
+    private static Result replay(boolean dutyCycle) throws Exception {
+        PreferenceManager.getDefaultSharedPreferences(RuntimeEnvironment.application).edit()
+                .putString(MainActivity.KEY_DEVICE, TestTrace.DEVICE_ID)
+                .putString(MainActivity.KEY_PROVIDER, "gps")
+                .putString(MainActivity.KEY_INTERVAL, String.valueOf(PERIOD / 1000))
+                .putString(MainActivity.KEY_MIN_INTERVAL, "5")
+                .putString(MainActivity.KEY_DISTANCE_THRESHOLD, "100")
+                .putString(MainActivity.KEY_SPEED_DELTA_THRESHOLD, "10")
+                .putString(MainActivity.KEY_COURSE_DELTA_THRESHOLD, "30")
+                .putBoolean(MainActivity.KEY_DUTY_CYCLE, dutyCycle)
+                .commit();
+
+        Result result = new Result();
+        ReplayPositionProvider provider = new ReplayPositionProvider(RuntimeEnvironment.application, result);
+        provider.startUpdates();
+
+        PositionBatch trace = TestTrace.load();
+        long lastFix = 0;
+        for (int i = 0; i < trace.size(); i++) {
+            long time = trace.getTime(i);
+            boolean continuous = provider.requestedInterval <= CONTINUOUS_INTERVAL;
+            if (i > 0 && continuous) {
+                result.gpsTime += time - trace.getTime(i - 1);
+            }
+            if (lastFix == 0 || time - lastFix >= provider.requestedInterval) {
+                if (!continuous) {
+                    result.gpsTime += FIX_TIME;
+                }
+                lastFix = time;
+                provider.updateLocation(createLocation(trace, i));
+            }
+        }
+        result.requestCount = provider.requestCount;
+        return result;
+    }
+
+    private static long maxGap(List<Position> positions) {
+        long max = 0;
+        for (int i = 1; i < positions.size(); i++) {
+            max = Math.max(max, positions.get(i).getTime().getTime() - positions.get(i - 1).getTime().getTime());
+        }
+        return max;
+    }
+
+    @Test
+    public void testDrivePark() throws Exception {
+
+        Result continuous = replay(false);
+        Result dutyCycle = replay(true);
+
+        assertEquals(1, continuous.requestCount);
+        assertTrue(dutyCycle.gpsTime < continuous.gpsTime * 2 / 3);
+        assertTrue(dutyCycle.positions.size() < continuous.positions.size());
+
+        // parked devices still report every period, give or take one sample
+        assertTrue(maxGap(dutyCycle.positions) <= PERIOD + PositionProvider.PARKED_SAMPLE_INTERVAL);
+
+        // trips are tracked in full once the first sample notices them
+        int moving = 0;
+        for (Position position : dutyCycle.positions) {
+            if (position.getSpeed() / 1.943844 > 5) {
+                moving += 1;
+            }
+        }
+        int movingContinuous = 0;
+        for (Position position : continuous.positions) {
+            if (position.getSpeed() / 1.943844 > 5) {
+                movingContinuous += 1;
+            }
+        }
+        assertTrue(moving > movingContinuous * 9 / 10);
+
+    }
+
+    @Test
+    public void testStates() throws Exception {
+
+        PreferenceManager.getDefaultSharedPreferences(RuntimeEnvironment.application).edit()
+                .putString(MainActivity.KEY_DEVICE, TestTrace.DEVICE_ID)
+                .putString(MainActivity.KEY_INTERVAL, "300")
+                .putString(MainActivity.KEY_MIN_INTERVAL, "5")
+                .putString(MainActivity.KEY_DISTANCE_THRESHOLD, "100")
+                .putBoolean(MainActivity.KEY_DUTY_CYCLE, true)
+                .commit();
+        Result result = new Result();
+        ReplayPositionProvider provider = new ReplayPositionProvider(RuntimeEnvironment.application, result);
+        provider.startUpdates();
+
+        long time = 0;
+        for (int i = 0; i <= 60; i++) {
+            Location location = new Location("gps");
+            location.setTime(time += 5000);
+            location.setLatitude(59.43 + (i % 2) * 0.0002);
+            location.setLongitude(24.75);
+            location.setAccuracy(10);
+            provider.updateLocation(location);
+        }
+        // five minutes within the radius
+        assertEquals(PositionProvider.TrackingState.PARKED, provider.getState());
+        assertEquals(PositionProvider.PARKED_SAMPLE_INTERVAL, provider.requestedInterval);
+
+        // samples in place only produce heartbeats at the parked location, one per period
+        int count = result.positions.size();
+        Position last = result.positions.get(count - 1);
+        for (int i = 0; i < 6; i++) {
+            Location location = new Location("gps");
+            location.setTime(time += PositionProvider.PARKED_SAMPLE_INTERVAL);
+            location.setLatitude(59.43 + 0.0003);
+            location.setLongitude(24.75);
+            location.setAccuracy(10);
+            provider.updateLocation(location);
+        }
+        assertEquals(count + 2, result.positions.size());
+        Position heartbeat = result.positions.get(count);
+        assertEquals(last.getLatitude(), heartbeat.getLatitude(), 0);
+        assertEquals(0, heartbeat.getSpeed(), 0);
+        assertTrue(heartbeat.isHeartbeat());
+
+        // moving away resumes tracking with the fix that showed it
+        Location location = new Location("gps");
+        location.setTime(time += PositionProvider.PARKED_SAMPLE_INTERVAL);
+        location.setLatitude(59.44);
+        location.setLongitude(24.75);
+        location.setAccuracy(10);
+        provider.updateLocation(location);
+        assertEquals(PositionProvider.TrackingState.MOVING, provider.getState());
+        assertEquals(5000, provider.requestedInterval);
+        assertEquals(location.getTime(), result.positions.get(result.positions.size() - 1).getTime().getTime());
+
+    }
+
+}
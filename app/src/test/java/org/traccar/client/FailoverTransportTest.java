@@ -0,0 +1,226 @@
+package org.traccar.client;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class FailoverTransportTest {
+
+    // real time for request latency, plus skips over the probe pauses
+    private static class SkippingClock implements RetryPolicy.Clock {
+
+        private long offset;
+
+        public void advance(long delay) {
+            offset += delay;
+        }
+
+        @Override
+        public long elapsedRealtime() {
+            return System.nanoTime() / 1000000 + offset;
+        }
+
+    }
+
+    private static final long BASE_DELAY = 60 * 1000;
+    private static final long MAX_DELAY = 10 * 60 * 1000;
+
+    private TestHttpServer down;
+    private TestHttpServer slow;
+    private TestHttpServer fast;
+    private SkippingClock clock;
+    private FailoverTransport transport;
+
+    private static Endpoint createEndpoint(TestHttpServer server) {
+        return new Endpoint("127.0.0.1", server.getPort(), new HttpTransport("127.0.0.1", server.getPort(), false));
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        down = new TestHttpServer();
+        down.setStatus(503);
+        slow = new TestHttpServer();
+        slow.setDelay(300);
+        fast = new TestHttpServer();
+
+        List<Endpoint> endpoints = new ArrayList<>();
+        endpoints.add(createEndpoint(down));
+        endpoints.add(createEndpoint(slow));
+        endpoints.add(createEndpoint(fast));
+        clock = new SkippingClock();
+        transport = new FailoverTransport(endpoints, BASE_DELAY, MAX_DELAY, clock);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        transport.close();
+        down.close();
+        slow.close();
+        fast.close();
+    }
+
+    private static PositionBatch createBatch() {
+        PositionBatch batch = new PositionBatch();
+        batch.add(1, "123456789012345", 0, 1.5, -2.5, 10.0, 100.0, 0.0, 90.0, 50.0);
+        batch.add(2, "123456789012345", 1000, 1.5, -2.5, 10.0, 100.0, 0.0, 90.0, 50.0);
+        return batch;
+    }
+
+    @Test
+    public void testParseAddresses() throws Exception {
+
+        List<Pair<String, Integer>> addresses = Endpoint.parseAddresses(" a.example.com, b.example.com:5056,,[::1]:80,::1", 5055);
+        assertEquals(4, addresses.size());
+        assertEquals("a.example.com", addresses.get(0).first);
+        assertEquals(5055, (int) addresses.get(0).second);
+        assertEquals("b.example.com", addresses.get(1).first);
+        assertEquals(5056, (int) addresses.get(1).second);
+        assertEquals("[::1]", addresses.get(2).first);
+        assertEquals(80, (int) addresses.get(2).second);
+        assertEquals("::1", addresses.get(3).first);
+        assertEquals(5055, (int) addresses.get(3).second);
+
+    }
+
+    @Test
+    public void testFailover() throws Exception {
+
+        Endpoint downEndpoint = transport.getEndpoints().get(0);
+        Endpoint slowEndpoint = transport.getEndpoints().get(1);
+
+        // the first server fails, the same attempt goes on to the next one
+        transport.send(createBatch());
+        assertEquals(1, down.getRequests().size());
+        assertEquals(1, slow.getRequests().size());
+        assertFalse(downEndpoint.isHealthy());
+        assertTrue(slowEndpoint.getLatency() >= 300);
+
+        // once measured, the fast server gets the traffic
+        for (int i = 0; i < 10; i++) {
+            transport.send(createBatch());
+        }
+        assertEquals(1, down.getRequests().size());
+        assertEquals(1, slow.getRequests().size());
+        assertEquals(10, fast.getRequests().size());
+
+        // the failed server is probed again after a pause that doubles with every failure
+        clock.advance(BASE_DELAY);
+        transport.send(createBatch());
+        assertEquals(2, down.getRequests().size());
+        assertEquals(11, fast.getRequests().size());
+        clock.advance(BASE_DELAY);
+        transport.send(createBatch());
+        assertEquals(2, down.getRequests().size());
+        clock.advance(BASE_DELAY);
+        transport.send(createBatch());
+        assertEquals(3, down.getRequests().size());
+
+        // a successful probe brings it back, ranked by its health from then on
+        down.setStatus(200);
+        clock.advance(4 * BASE_DELAY);
+        long before = clock.elapsedRealtime();
+        transport.send(createBatch());
+        assertEquals(4, down.getRequests().size());
+        assertTrue(downEndpoint.isHealthy());
+        assertTrue(downEndpoint.getLastSuccess() >= before);
+        assertTrue(downEndpoint.getErrorRate() > 0);
+
+    }
+
+    @Test
+    public void testNoFailover() throws Exception {
+
+        // a server rejecting the request has been reached, another one would reject it too
+        down.setStatus(400);
+        try {
+            transport.send(createBatch());
+            fail();
+        } catch (HttpStatusException error) {
+            assertEquals(400, error.getStatus());
+        }
+        assertEquals(1, down.getRequests().size());
+        assertEquals(0, slow.getRequests().size());
+        assertTrue(transport.getEndpoints().get(0).isHealthy());
+
+    }
+
+    @Test
+    public void testConnectionClosed() throws Exception {
+
+        // accepts connections and closes them before answering
+        final ServerSocket closing = new ServerSocket(0);
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        closing.accept().close();
+                    }
+                } catch (IOException error) {
+                    // server closed
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        List<Endpoint> endpoints = new ArrayList<>();
+        int port = closing.getLocalPort();
+        endpoints.add(new Endpoint("127.0.0.1", port, new HttpTransport("127.0.0.1", port, false)));
+        endpoints.add(createEndpoint(fast));
+        FailoverTransport transport = new FailoverTransport(endpoints, BASE_DELAY, MAX_DELAY, clock);
+
+        // a server dropping the connection has not answered, the batch goes to the next one
+        transport.send(createBatch());
+        assertEquals(1, fast.getRequests().size());
+        assertFalse(endpoints.get(0).isHealthy());
+        assertEquals(-1, endpoints.get(0).getLastSuccess());
+
+        transport.close();
+        closing.close();
+
+    }
+
+    @Test
+    public void testAllDown() throws Exception {
+
+        slow.setStatus(503);
+        List<Endpoint> endpoints = new ArrayList<>();
+        endpoints.add(createEndpoint(down));
+        endpoints.add(createEndpoint(slow));
+        int port = TestTcpServer.CLOSED_PORT;
+        endpoints.add(new Endpoint("127.0.0.1", port, new HttpTransport("127.0.0.1", port, false)));
+        FailoverTransport transport = new FailoverTransport(endpoints, BASE_DELAY, MAX_DELAY, clock);
+
+        // every endpoint is tried once, the last error is reported
+        for (int i = 1; i <= 2; i++) {
+            try {
+                transport.send(createBatch());
+                fail();
+            } catch (ConnectException error) {
+                assertEquals(RetryPolicy.Failure.CONNECT, RetryPolicy.classify(error));
+            }
+            assertEquals(i, down.getRequests().size());
+            assertEquals(i, slow.getRequests().size());
+        }
+        transport.close();
+
+    }
+
+}
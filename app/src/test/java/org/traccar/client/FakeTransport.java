@@ -0,0 +1,108 @@
+/*
+ * Copyright 2015 Anton Tananaev (anton.tananaev@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.client;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Simulated link with fixed latency, bandwidth and packet loss. Nothing is sent, every request
+ * advances a virtual clock by the time it would have taken.
+ */
+public class FakeTransport implements Transport {
+
+    private static final int PACKET_SIZE = 1400;
+    private static final long TIMEOUT = 15 * 1000;
+
+    private final long latency;
+    private final int bandwidth;
+    private final double packetLoss;
+    private final Random random;
+    private final AsciiBuffer buffer = new AsciiBuffer();
+
+    private long time;
+    private long lastTime;
+    private int delivered;
+
+    /**
+     * @param latency round trip time in milliseconds
+     * @param bandwidth bytes per second
+     * @param packetLoss probability of losing each packet, a lost packet fails the request
+     */
+    public FakeTransport(long latency, int bandwidth, double packetLoss, long seed) {
+        this.latency = latency;
+        this.bandwidth = bandwidth;
+        this.packetLoss = packetLoss;
+        random = new Random(seed);
+    }
+
+    /**
+     * Virtual time in milliseconds spent on all requests.
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Virtual time in milliseconds of the latest request.
+     */
+    public long getLastTime() {
+        return lastTime;
+    }
+
+    public int getDelivered() {
+        return delivered;
+    }
+
+    @Override
+    public int send(PositionBatch batch) throws IOException {
+        // sized like an HTTP request, a single position goes in the query
+        buffer.reset().append(ProtocolFormatter.formatUrl("localhost", 5055));
+        if (batch.size() == 1) {
+            buffer.append('?');
+            ProtocolFormatter.appendRecord(buffer, batch, 0);
+        } else {
+            ProtocolFormatter.appendBody(buffer, batch);
+        }
+        int bytes = buffer.length();
+        int packets = (bytes + PACKET_SIZE - 1) / PACKET_SIZE;
+        for (int i = 0; i < packets; i++) {
+            if (random.nextDouble() < packetLoss) {
+                lastTime = TIMEOUT;
+                time += lastTime;
+                throw new IOException("Request timed out");
+            }
+        }
+        lastTime = latency + bytes * 1000L / bandwidth;
+        time += lastTime;
+        delivered += batch.size();
+        return bytes;
+    }
+
+    @Override
+    public int sendHeartbeat(Position position) throws IOException {
+        buffer.reset().append(ProtocolFormatter.formatUrl("localhost", 5055)).append('?');
+        ProtocolFormatter.appendHeartbeat(buffer, position);
+        lastTime = latency + buffer.length() * 1000L / bandwidth;
+        time += lastTime;
+        return buffer.length();
+    }
+
+    @Override
+    public void close() {
+    }
+
+}
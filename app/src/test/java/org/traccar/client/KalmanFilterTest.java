@@ -0,0 +1,122 @@
+package org.traccar.client;
+
+import android.location.Location;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class KalmanFilterTest {
+
+    private static final double LATITUDE = 59.43;
+    private static final double LONGITUDE = 24.75;
+    private static final double METERS_PER_DEGREE = Math.toRadians(6371000);
+    private static final double SCALE = Math.cos(Math.toRadians(LATITUDE));
+
+    private static Location createLocation(long time, double north, double east, float accuracy) {
+        Location location = new Location("gps");
+        location.setTime(time);
+        location.setLatitude(LATITUDE + north / METERS_PER_DEGREE);
+        location.setLongitude(LONGITUDE + east / METERS_PER_DEGREE / SCALE);
+        location.setAccuracy(accuracy);
+        return location;
+    }
+
+    private static double error(Location location, double north, double east) {
+        double dy = (location.getLatitude() - LATITUDE) * METERS_PER_DEGREE - north;
+        double dx = (location.getLongitude() - LONGITUDE) * METERS_PER_DEGREE * SCALE - east;
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    @Test
+    public void testDrive() throws Exception {
+
+        // 20 m/s north east, one fix per second with 10 m noise
+        Random random = new Random(1);
+        KalmanFilter filter = new KalmanFilter();
+        double rawError = 0;
+        double filteredError = 0;
+        for (int i = 0; i < 300; i++) {
+            double north = i * 14.0;
+            double east = i * 14.0;
+            Location location = createLocation(i * 1000L,
+                    north + random.nextGaussian() * 10, east + random.nextGaussian() * 10, 10);
+            double raw = error(location, north, east);
+            assertEquals(PositionFilter.Result.PASS, filter.filter(location, null));
+            if (i >= 10) {
+                rawError += raw * raw;
+                filteredError += Math.pow(error(location, north, east), 2);
+            }
+        }
+        rawError = Math.sqrt(rawError / 290);
+        filteredError = Math.sqrt(filteredError / 290);
+        assertTrue(filteredError < rawError * 0.6);
+
+    }
+
+    private static int countReported(boolean smoothing) {
+        PositionFilterChain chain = PositionFilters.createDefault(3600 * 1000, 0, 1, 50, 0, 0);
+        if (smoothing) {
+            chain.insertBefore(PositionFilters.ACCURACY_STEP, new KalmanFilter());
+        }
+        // parked for an hour with 25 m noise, fixes every 5 seconds
+        Random random = new Random(2);
+        Location last = null;
+        int count = 0;
+        for (int i = 0; i < 720; i++) {
+            Location location = createLocation(
+                    i * 5000L, random.nextGaussian() * 25, random.nextGaussian() * 25, 25);
+            if (chain.accept(location, last)) {
+                last = location;
+                count += 1;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void testParked() throws Exception {
+
+        int raw = countReported(false);
+        int smoothed = countReported(true);
+        assertTrue(smoothed * 3 < raw);
+
+    }
+
+    @Test
+    public void testJump() throws Exception {
+
+        KalmanFilter filter = new KalmanFilter();
+        Random random = new Random(3);
+        for (int i = 0; i < 30; i++) {
+            filter.filter(createLocation(i * 5000L, i * 50 + random.nextGaussian() * 5, 0, 5), null);
+        }
+
+        // a single fix 700 m off the road is rejected, the track goes on
+        assertEquals(PositionFilter.Result.REJECT, filter.filter(createLocation(30 * 5000L, 1500, 700, 5), null));
+        Location location = createLocation(31 * 5000L, 31 * 50, 0, 5);
+        assertEquals(PositionFilter.Result.PASS, filter.filter(location, null));
+        assertTrue(error(location, 31 * 50, 0) < 5);
+
+        // the device really is elsewhere, the filter starts over once the jump persists
+        for (int i = 32; i < 35; i++) {
+            assertEquals(PositionFilter.Result.REJECT, filter.filter(createLocation(i * 5000L, 20000, 0, 5), null));
+        }
+        location = createLocation(35 * 5000L, 20000, 0, 5);
+        assertEquals(PositionFilter.Result.PASS, filter.filter(location, null));
+        assertTrue(error(location, 20000, 0) < 1);
+
+        // fixes arriving out of order are dropped
+        assertEquals(PositionFilter.Result.REJECT, filter.filter(createLocation(34 * 5000L, 20000, 0, 5), null));
+
+    }
+
+}
@@ -0,0 +1,186 @@
+package org.traccar.client;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class PayloadFormatterTest {
+
+    private static final int BATCH_SIZE = 100;
+
+    private static PositionBatch createBatch() {
+        PositionBatch batch = new PositionBatch();
+        batch.add(1, "123456789012345", 1446368400000L, 59.4369726, 24.753697, 5.0, 30.5, 0.0, 0.0, 96.0);
+        batch.add(2, "123456789012345", 1446368405000L, 59.4373851, 24.7541263, 5.0, 30.5, 23.4, 35.2, 96.0);
+        batch.add(3, "123456789012345", 1446368410000L, 59.4378102, 24.7545011, 4.2, 30.5, 23.4, 35.2, 95.0);
+        batch.add(4, "123456789012345", 1446368420000L, 59.4377, 24.7549, 4.2, 30.7, 12.0, 121.5, 95.0);
+        batch.add(5, "dev \"2\"", 1446368400000L, -33.8688197, 151.2092955, 10.0, 58.0, 0.0, 0.0, 50.0);
+        batch.add(6, "dev \"2\"", 1446368460000L, -33.8688197, 151.2092955, 10.0, 58.0, 0.0, 0.0, 50.0);
+        return batch;
+    }
+
+    private static String format(PayloadFormatter formatter, PositionBatch batch) {
+        AsciiBuffer buffer = new AsciiBuffer();
+        formatter.format(buffer, batch);
+        return buffer.toString();
+    }
+
+    private static void verifyGolden(PayloadFormatter formatter, String name) throws IOException {
+        String expected = TestTrace.readResource("payload/" + name);
+        if (expected.endsWith("\n")) {
+            expected = expected.substring(0, expected.length() - 1);
+        }
+        assertEquals(expected, format(formatter, createBatch()));
+    }
+
+    @Test
+    public void testQuery() throws Exception {
+        verifyGolden(new QueryPayloadFormatter(), "query.txt");
+    }
+
+    @Test
+    public void testJson() throws Exception {
+        verifyGolden(new JsonPayloadFormatter(), "json.txt");
+    }
+
+    @Test
+    public void testDelta() throws Exception {
+        verifyGolden(new DeltaPayloadFormatter(), "delta.txt");
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        assertEquals("[]", format(new JsonPayloadFormatter(), new PositionBatch()));
+        assertEquals("", format(new DeltaPayloadFormatter(), new PositionBatch()));
+    }
+
+    private static PositionBatch createBatch(String deviceId) {
+        PositionBatch batch = new PositionBatch();
+        batch.add(1, deviceId, 1446368400000L, 59.4369726, 24.753697, 5.0, 30.5, 0.0, 0.0, 96.0);
+        batch.add(2, deviceId, 1446368405000L, 59.4373851, 24.7541263, 5.0, 30.5, 23.4, 35.2, 96.0);
+        batch.add(3, "123456789012345", 1446368410000L, 59.4378102, 24.7545011, 4.2, 30.5, 23.4, 35.2, 95.0);
+        return batch;
+    }
+
+    @Test
+    public void testNullDevice() throws Exception {
+        // rows stored before device ids were required have none, they are sent like the query format sends them
+        PayloadFormatter[] formatters = {
+                new QueryPayloadFormatter(), new JsonPayloadFormatter(), new DeltaPayloadFormatter() };
+        for (PayloadFormatter formatter : formatters) {
+            assertEquals(format(formatter, createBatch("null")), format(formatter, createBatch(null)));
+        }
+    }
+
+    @Test
+    public void testHttpTransport() throws Exception {
+
+        TestHttpServer server = new TestHttpServer();
+        Transport transport = new HttpTransport("127.0.0.1", server.getPort(), false, new DeltaPayloadFormatter());
+
+        PositionBatch single = new PositionBatch();
+        single.add(1, "123456789012345", 1446368400000L, 59.4369726, 24.753697, 5.0, 30.5, 0.0, 0.0, 96.0);
+        transport.send(single);
+        transport.send(createBatch());
+
+        // every batch is posted, even a single position
+        assertEquals(2, server.getBodies().size());
+        assertEquals(format(new DeltaPayloadFormatter(), createBatch()), server.getBodies().get(1));
+
+        transport.close();
+        server.close();
+
+    }
+
+    private static PositionBatch slice(PositionBatch trace, int from, PositionBatch batch) {
+        batch.clear();
+        for (int i = from; i < Math.min(trace.size(), from + BATCH_SIZE); i++) {
+            batch.add(trace.getId(i), trace.getDeviceId(i), trace.getTime(i), trace.getLatitude(i),
+                    trace.getLongitude(i), trace.getHorizontalAccuracy(i), trace.getAltitude(i),
+                    trace.getSpeed(i), trace.getCourse(i), trace.getBattery(i));
+        }
+        return batch;
+    }
+
+    // bytes of the whole trace sent in batches
+    private static long measure(PayloadFormatter formatter, PositionBatch trace) {
+        AsciiBuffer buffer = new AsciiBuffer();
+        PositionBatch batch = new PositionBatch();
+        long bytes = 0;
+        for (int i = 0; i < trace.size(); i += BATCH_SIZE) {
+            formatter.format(buffer.reset(), slice(trace, i, batch));
+            bytes += buffer.length();
+        }
+        return bytes;
+    }
+
+    @Test
+    public void testTraceSize() throws Exception {
+
+        PositionBatch trace = TestTrace.load();
+        long query = measure(new QueryPayloadFormatter(), trace);
+        long json = measure(new JsonPayloadFormatter(), trace);
+        long delta = measure(new DeltaPayloadFormatter(), trace);
+
+        assertTrue(json * 2 < query);
+        assertTrue(delta * 5 < query);
+
+    }
+
+    private static final int ROUNDS = 20;
+
+    /**
+     * @return bytes allocated and nanoseconds spent per position, the fastest of several rounds
+     */
+    private static long[] benchmark(PayloadFormatter formatter, PositionBatch trace) {
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        for (int i = 0; i < ROUNDS; i++) {
+            measure(formatter, trace);
+        }
+        long allocatedStart = threadBean.getThreadAllocatedBytes(thread);
+        long time = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            measure(formatter, trace);
+            time = Math.min(time, System.nanoTime() - start);
+        }
+        long allocated = threadBean.getThreadAllocatedBytes(thread) - allocatedStart;
+        return new long[] { allocated / ((long) ROUNDS * trace.size()), time / trace.size() };
+    }
+
+    @Test
+    public void benchmarkFormats() throws Exception {
+
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+
+        PositionBatch trace = TestTrace.load();
+        long[] query = benchmark(new QueryPayloadFormatter(), trace);
+        long[] json = benchmark(new JsonPayloadFormatter(), trace);
+        long[] delta = benchmark(new DeltaPayloadFormatter(), trace);
+
+        // formats write straight into the buffer, only its growth allocates and the compact formats grow it less
+        assertTrue(query[0] < 32);
+        assertTrue(json[0] <= query[0]);
+        assertTrue(delta[0] <= query[0]);
+
+        // a smaller payload takes no longer to write, the margin absorbs timing noise
+        assertTrue(json[1] < query[1] * 2);
+        assertTrue(delta[1] < query[1] * 2);
+
+    }
+
+}
@@ -0,0 +1,140 @@
+package org.traccar.client;
+
+import android.location.Location;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class PositionFilterTest {
+
+    private static final long PERIOD = 60 * 1000;
+    private static final long MIN_ACCURACY = 25;
+    private static final long ACCURACY_LEVEL_STEP = 10;
+    private static final long DISTANCE_THRESHOLD = 100;
+    private static final double SPEED_DELTA_THRESHOLD = 10 / 3.6;
+    private static final long COURSE_DELTA_THRESHOLD = 30;
+
+    private static List<Location> loadLocations() throws Exception {
+        PositionBatch batch = TestTrace.load();
+        List<Location> locations = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            Location location = new Location("gps");
+            location.setTime(batch.getTime(i));
+            location.setLatitude(batch.getLatitude(i));
+            location.setLongitude(batch.getLongitude(i));
+            location.setAccuracy((float) batch.getHorizontalAccuracy(i));
+            location.setAltitude(batch.getAltitude(i));
+            location.setSpeed((float) (batch.getSpeed(i) / 1.943844));
+            location.setBearing((float) batch.getCourse(i));
+            locations.add(location);
+            if (i % 100 == 0) {
+                // the same fix delivered twice
+                locations.add(new Location(location));
+            }
+        }
+        return locations;
+    }
+
+    // Condition used before the filter stages were introduced
+    private static boolean acceptLegacy(Location location, Location lastLocation) {
+        if (lastLocation != null && location.getTime() == lastLocation.getTime()) {
+            return false;
+        }
+        if (!location.hasAccuracy() || (MIN_ACCURACY > 0 && location.getAccuracy() > MIN_ACCURACY)) {
+            return false;
+        }
+        return lastLocation == null ||
+                Math.floor(location.getAccuracy()/ACCURACY_LEVEL_STEP) < Math.floor(lastLocation.getAccuracy()/ACCURACY_LEVEL_STEP) ||
+                location.hasSpeed() && (!lastLocation.hasSpeed() || SPEED_DELTA_THRESHOLD > 0 && Math.abs(location.getSpeed() - lastLocation.getSpeed()) >= SPEED_DELTA_THRESHOLD) ||
+                location.hasBearing() && (!lastLocation.hasBearing() || COURSE_DELTA_THRESHOLD > 0 && Math.abs(location.getBearing() - lastLocation.getBearing()) >= COURSE_DELTA_THRESHOLD) ||
+                location.getTime() - lastLocation.getTime() >= PERIOD ||
+                DISTANCE_THRESHOLD > 0 && location.distanceTo(lastLocation) >= DISTANCE_THRESHOLD;
+    }
+
+    private static PositionFilterChain createChain() {
+        return PositionFilters.createDefault(PERIOD, MIN_ACCURACY, ACCURACY_LEVEL_STEP,
+                DISTANCE_THRESHOLD, SPEED_DELTA_THRESHOLD, COURSE_DELTA_THRESHOLD);
+    }
+
+    @Test
+    public void testSameDecisions() throws Exception {
+
+        List<Location> locations = loadLocations();
+        PositionFilterChain chain = createChain();
+        Location lastLegacy = null;
+        Location last = null;
+        int accepted = 0;
+        for (Location location : locations) {
+            boolean expected = acceptLegacy(location, lastLegacy);
+            if (expected) {
+                lastLegacy = location;
+            }
+            boolean actual = chain.accept(location, last);
+            if (actual) {
+                last = location;
+                accepted += 1;
+            }
+            assertEquals(expected, actual);
+        }
+
+        // every fix is counted by the stage that decided it
+        int decided = chain.getUnchangedCount();
+        int acceptCount = 0;
+        for (PositionFilterChain.Stage stage : chain.getStages()) {
+            decided += stage.getAcceptCount() + stage.getRejectCount();
+            acceptCount += stage.getAcceptCount();
+            assertTrue(stage.getTime() >= 0);
+        }
+        assertEquals(locations.size(), decided);
+        assertEquals(accepted, acceptCount);
+
+        List<PositionFilterChain.Stage> stages = chain.getStages();
+        assertEquals(PositionFilters.STALENESS, stages.get(0).getName());
+        // repeated fixes are stale only after the original was reported
+        assertTrue(stages.get(0).getRejectCount() > 0);
+        assertTrue(stages.get(1).getRejectCount() > 0);
+
+    }
+
+    @Test
+    public void testInsertStage() throws Exception {
+
+        // a stage added from outside runs before the ones reporting changes
+        PositionFilterChain chain = createChain();
+        chain.insertBefore(PositionFilters.ACCURACY_STEP, new PositionFilter() {
+            @Override
+            public String getName() {
+                return "no_network";
+            }
+
+            @Override
+            public Result filter(Location location, Location lastLocation) {
+                return "network".equals(location.getProvider()) ? Result.REJECT : Result.PASS;
+            }
+        });
+
+        Location location = new Location("network");
+        location.setAccuracy(10);
+        assertEquals(false, chain.accept(location, null));
+        location = new Location("gps");
+        location.setAccuracy(10);
+        assertEquals(true, chain.accept(location, null));
+
+        PositionFilterChain.Stage stage = chain.getStages().get(2);
+        assertEquals("no_network", stage.getName());
+        assertEquals(1, stage.getRejectCount());
+        assertEquals(1, stage.getPassCount());
+
+    }
+
+}
@@ -0,0 +1,251 @@
+package org.traccar.client;
+
+import android.location.Location;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class PositionStoreTest {
+
+    private static Position createPosition(int index) {
+        Location location = new Location("gps");
+        location.setLatitude(10 + index * 0.001);
+        location.setLongitude(20 - index * 0.001);
+        location.setAccuracy(5 + index % 10);
+        location.setAltitude(100 + index);
+        location.setSpeed(index % 30);
+        location.setBearing(index % 360);
+        Position position = new Position(index % 3 == 0 ? "123456789012345" : "987654", location, index % 100);
+        position.setTime(new Date(1000L * index));
+        return position;
+    }
+
+    private static String format(Position position) {
+        return position.getId() + " " + position.getDeviceId() + " " + position.getTime().getTime() + " " +
+                position.getLatitude() + " " + position.getLongitude() + " " + position.getHorizontalAccuracy() + " " +
+                position.getAltitude() + " " + position.getSpeed() + " " + position.getCourse() + " " +
+                position.getBattery();
+    }
+
+    private static String format(PositionBatch batch, int index) {
+        return batch.getId(index) + " " + batch.getDeviceId(index) + " " + batch.getTime(index) + " " +
+                batch.getLatitude(index) + " " + batch.getLongitude(index) + " " + batch.getHorizontalAccuracy(index) + " " +
+                batch.getAltitude(index) + " " + batch.getSpeed(index) + " " + batch.getCourse(index) + " " +
+                batch.getBattery(index);
+    }
+
+    private static List<String> readAll(PositionStore store, int pageSize) {
+        List<String> result = new ArrayList<>();
+        List<PositionBatch> pages = new ArrayList<>();
+        PositionBatch batch = new PositionBatch();
+        int read;
+        while ((read = store.leasePositions(pageSize, batch)) > 0) {
+            assertEquals(read, batch.size());
+            for (int i = 0; i < read; i++) {
+                result.add(format(batch, i));
+            }
+            pages.add(batch);
+            batch = new PositionBatch();
+        }
+        for (PositionBatch page : pages) {
+            store.releasePositions(page);
+        }
+        return result;
+    }
+
+    private static List<String> runScenario(PositionStore store) {
+        List<String> trace = new ArrayList<>();
+
+        assertNull(store.selectPosition());
+        assertEquals(0, store.leasePositions(10, new PositionBatch()));
+
+        for (int i = 0; i < 5000; i++) {
+            store.insertPosition(createPosition(i));
+        }
+        trace.add(format(store.selectPosition()));
+        trace.addAll(readAll(store, 7));
+
+        PositionBatch batch = new PositionBatch();
+        store.leasePositions(1, batch);
+        store.deletePositions(batch);
+        store.deletePosition(3);
+        store.deletePosition(4096);
+        store.deletePosition(5000);
+        try {
+            store.deletePosition(3);
+            fail();
+        } catch (RuntimeException expected) {
+            trace.add("deleted twice");
+        }
+        trace.add(format(store.selectPosition()));
+        trace.addAll(readAll(store, 500));
+
+        // batches spanning gaps left by earlier deletes
+        store.leasePositions(100, batch);
+        store.deletePositions(batch);
+        store.leasePositions(4000, batch);
+        store.deletePositions(batch);
+        try {
+            store.deletePositions(batch);
+            fail();
+        } catch (RuntimeException expected) {
+            trace.add("batch deleted twice");
+        }
+        trace.addAll(readAll(store, 500));
+
+        PositionBatch single = new PositionBatch();
+        while (store.leasePositions(1, single) > 0) {
+            store.deletePositions(single);
+        }
+        assertNull(store.selectPosition());
+
+        store.insertPosition(createPosition(1));
+        trace.addAll(readAll(store, 10));
+
+        return trace;
+    }
+
+    @Test
+    public void testSameBehaviour() throws Exception {
+
+        DatabaseHelper databaseHelper = new DatabaseHelper(RuntimeEnvironment.application);
+        List<String> expected = runScenario(databaseHelper);
+        databaseHelper.close();
+
+        File directory = new File(RuntimeEnvironment.application.getCacheDir(), "positions");
+        LogPositionStore logStore = new LogPositionStore(directory);
+        List<String> actual = runScenario(logStore);
+        logStore.close();
+
+        assertEquals(expected, actual);
+
+    }
+
+    private static void runLeaseScenario(PositionStore store) {
+        for (int i = 0; i < 100; i++) {
+            store.insertPosition(createPosition(i));
+        }
+
+        PositionBatch first = new PositionBatch();
+        PositionBatch second = new PositionBatch();
+        assertEquals(30, store.leasePositions(30, first));
+        assertEquals(30, store.leasePositions(30, second));
+        assertEquals(31, second.getFirstId());
+
+        // a released batch is leased again, but a lease never spans a batch still in flight
+        store.releasePositions(first);
+        assertEquals(30, store.leasePositions(50, first));
+        assertEquals(1, first.getFirstId());
+        assertEquals(30, first.getLastId());
+
+        store.deletePositions(second);
+        store.deletePositions(first);
+        assertEquals(40, store.leasePositions(50, first));
+        assertEquals(61, first.getFirstId());
+        assertEquals(0, store.leasePositions(50, second));
+
+        store.deletePositions(first);
+        assertNull(store.selectPosition());
+
+        // deleting the acknowledged head of a batch leaves the rest leased
+        for (int i = 0; i < 20; i++) {
+            store.insertPosition(createPosition(i));
+        }
+        assertEquals(20, store.leasePositions(20, first));
+        PositionBatch head = new PositionBatch();
+        for (int i = 0; i < 8; i++) {
+            head.add(first, i);
+        }
+        first.removeFirst(8);
+        assertEquals(12, first.size());
+        assertEquals(head.getLastId() + 1, first.getFirstId());
+        store.deletePositions(head);
+        assertEquals(0, store.leasePositions(20, second));
+        store.releasePositions(first);
+        assertEquals(12, store.leasePositions(20, second));
+        assertEquals(first.getFirstId(), second.getFirstId());
+        store.deletePositions(second);
+        assertNull(store.selectPosition());
+    }
+
+    @Test
+    public void testLease() throws Exception {
+
+        DatabaseHelper databaseHelper = new DatabaseHelper(RuntimeEnvironment.application);
+        runLeaseScenario(databaseHelper);
+        databaseHelper.close();
+
+        LogPositionStore logStore = new LogPositionStore(new File(RuntimeEnvironment.application.getCacheDir(), "positions"));
+        runLeaseScenario(logStore);
+        logStore.close();
+
+    }
+
+    @Test
+    public void testLeaseExpiry() throws Exception {
+
+        DatabaseHelper databaseHelper = new DatabaseHelper(RuntimeEnvironment.application);
+        for (int i = 0; i < 10; i++) {
+            databaseHelper.insertPosition(createPosition(i));
+        }
+        PositionBatch batch = new PositionBatch();
+        assertEquals(10, databaseHelper.leasePositions(10, batch));
+        databaseHelper.close();
+
+        // leases held by a process that died are gone after reopening
+        databaseHelper = new DatabaseHelper(RuntimeEnvironment.application);
+        assertEquals(10, databaseHelper.leasePositions(10, batch));
+        databaseHelper.close();
+
+    }
+
+    @Test
+    public void testLogReopen() throws Exception {
+
+        File directory = new File(RuntimeEnvironment.application.getCacheDir(), "positions");
+
+        LogPositionStore store = new LogPositionStore(directory);
+        for (int i = 0; i < 5000; i++) {
+            store.insertPosition(createPosition(i));
+        }
+        PositionBatch batch = new PositionBatch();
+        store.leasePositions(4100, batch);
+        for (int i = 0; i < batch.size(); i++) {
+            store.deletePosition(batch.getId(i));
+        }
+        store.releasePositions(batch);
+        store.deletePosition(4102);
+        List<String> before = readAll(store, 100);
+        store.close();
+
+        store = new LogPositionStore(directory);
+        assertEquals(before, readAll(store, 100));
+        assertEquals(1, directory.list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String filename) {
+                return filename.endsWith(".log");
+            }
+        }).length);
+
+        store.insertPosition(createPosition(0));
+        assertEquals(5001, store.selectPosition().getId());
+        store.close();
+
+    }
+
+}
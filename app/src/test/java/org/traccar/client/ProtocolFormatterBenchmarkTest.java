@@ -0,0 +1,105 @@
+package org.traccar.client;
+
+import android.net.Uri;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class ProtocolFormatterBenchmarkTest {
+
+    private static final int BATCH_SIZE = 500;
+    private static final int ROUNDS = 200;
+
+    private static PositionBatch createBatch() {
+        PositionBatch batch = new PositionBatch(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch.add(i + 1, "123456789012345", 1400000000000L + i * 1000L, 59.4 + i * 0.0001234, 24.7 - i * 0.0000987,
+                    (double) (5 + i % 10) + 0.1f, 40.5 + i % 7, i % 30 * 0.539957, i % 360, 87.0);
+        }
+        return batch;
+    }
+
+    // Body formatting used before the ASCII buffer was introduced, only the access pattern is kept
+    private static byte[] formatBodyLegacy(PositionBatch batch) {
+        Uri.Builder builder = new Uri.Builder();
+        StringBuilder records = new StringBuilder();
+        for (int i = 0; i < batch.size(); i++) {
+            if (i > 0) {
+                records.append('\n');
+            }
+            records.append(builder.clearQuery()
+                    .appendQueryParameter("id", batch.getDeviceId(i))
+                    .appendQueryParameter("timestamp", String.valueOf(batch.getTime(i)))
+                    .appendQueryParameter("lat", String.valueOf(batch.getLatitude(i)))
+                    .appendQueryParameter("lon", String.valueOf(batch.getLongitude(i)))
+                    .appendQueryParameter("hacc", String.valueOf(batch.getHorizontalAccuracy(i)))
+                    .appendQueryParameter("speed", String.valueOf(batch.getSpeed(i)))
+                    .appendQueryParameter("bearing", String.valueOf(batch.getCourse(i)))
+                    .appendQueryParameter("altitude", String.valueOf(batch.getAltitude(i)))
+                    .appendQueryParameter("batt", String.valueOf(batch.getBattery(i)))
+                    .build().getEncodedQuery());
+        }
+        return records.toString().getBytes();
+    }
+
+    private interface Formatter {
+        void format(PositionBatch batch);
+    }
+
+    /**
+     * @return bytes allocated per formatted position
+     */
+    private static long measure(Formatter formatter, PositionBatch batch) {
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        for (int i = 0; i < ROUNDS; i++) {
+            formatter.format(batch);
+        }
+        long allocatedStart = threadBean.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < ROUNDS; i++) {
+            formatter.format(batch);
+        }
+        long allocated = threadBean.getThreadAllocatedBytes(thread) - allocatedStart;
+        return allocated / ((long) ROUNDS * BATCH_SIZE);
+    }
+
+    @Test
+    public void benchmarkAllocations() throws Exception {
+
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+
+        PositionBatch batch = createBatch();
+
+        long legacy = measure(new Formatter() {
+            @Override
+            public void format(PositionBatch batch) {
+                formatBodyLegacy(batch);
+            }
+        }, batch);
+
+        final AsciiBuffer buffer = new AsciiBuffer();
+        long current = measure(new Formatter() {
+            @Override
+            public void format(PositionBatch batch) {
+                ProtocolFormatter.appendBody(buffer.reset(), batch);
+            }
+        }, batch);
+
+        assertTrue(current < 8);
+        assertTrue(current * 50 < legacy);
+
+    }
+
+}
@@ -2,6 +2,7 @@
 package org.traccar.client;
 
 import android.location.Location;
+import android.net.Uri;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -24,7 +25,65 @@ public class ProtocolFormatterTest {
 
         String url = ProtocolFormatter.formatRequest("localhost", 5055, position);
 
-        assertEquals("http://localhost:5055?id=123456789012345&timestamp=0&lat=0.0&lon=0.0&speed=0.0&bearing=0.0&altitude=0.0&batt=0.0", url);
+        assertEquals("http://localhost:5055/?id=123456789012345&timestamp=0&lat=0.0&lon=0.0&hacc=0.0&speed=0.0&bearing=0.0&altitude=0.0&batt=0.0", url);
+
+    }
+
+    @Test
+    public void testFormatBatch() throws Exception {
+
+        PositionBatch batch = new PositionBatch();
+        batch.add(1, "123456789012345", 0, 1.5, -2.5, 10.0, 100.0, 0.0, 90.0, 50.0);
+        batch.add(2, "123456789012345", 1000, 1.5, -2.5, 10.0, 100.0, 0.0, 90.0, 50.0);
+
+        AsciiBuffer buffer = new AsciiBuffer();
+        ProtocolFormatter.appendBody(buffer, batch);
+
+        assertEquals("http://localhost:5055/", ProtocolFormatter.formatUrl("localhost", 5055));
+        assertEquals("id=123456789012345&timestamp=0&lat=1.5&lon=-2.5&hacc=10.0&speed=0.0&bearing=90.0&altitude=100.0&batt=50.0\n" +
+                "id=123456789012345&timestamp=1000&lat=1.5&lon=-2.5&hacc=10.0&speed=0.0&bearing=90.0&altitude=100.0&batt=50.0",
+                buffer.toString());
+
+    }
+
+    @Test
+    public void testFormatNumbers() throws Exception {
+
+        assertEquals("0.0", new AsciiBuffer().append(0.0, 6).toString());
+        assertEquals("0.0", new AsciiBuffer().append(-0.0000001, 6).toString());
+        assertEquals("12.0", new AsciiBuffer().append(12.0, 2).toString());
+        assertEquals("-2.5", new AsciiBuffer().append(-2.5, 6).toString());
+        assertEquals("0.0001", new AsciiBuffer().append(0.0001, 6).toString());
+        assertEquals("-0.0005", new AsciiBuffer().append(-0.0005, 6).toString());
+        assertEquals("5.1", new AsciiBuffer().append((double) 5.1f, 2).toString());
+        assertEquals("59.123457", new AsciiBuffer().append(59.1234567, 6).toString());
+        assertEquals("100.0", new AsciiBuffer().append(99.999, 2).toString());
+        assertEquals("NaN", new AsciiBuffer().append(Double.NaN, 2).toString());
+        assertEquals("-9223372036854775807", new AsciiBuffer().append(-Long.MAX_VALUE).toString());
+        assertEquals("a%20b%2Fc_-.!~*'()", new AsciiBuffer().appendEncoded("a b/c_-.!~*'()").toString());
+        assertEquals("%D1%82%D0%B5%D1%81%D1%82", new AsciiBuffer().appendEncoded("тест").toString());
+        assertEquals(new Uri.Builder().appendQueryParameter("id", null).build().getEncodedQuery(),
+                new AsciiBuffer().append("id=").appendEncoded(null).toString());
+
+    }
+
+    @Test
+    public void testParseAcknowledgement() throws Exception {
+
+        PositionBatch batch = new PositionBatch();
+        for (int i = 0; i < 10; i++) {
+            batch.add(i + 1, "123456789012345", i * 1000L, 1.5, -2.5, 10.0, 100.0, 0.0, 90.0, 50.0);
+        }
+
+        assertEquals(-1, ProtocolFormatter.parseAcknowledgement("", batch));
+        assertEquals(-1, ProtocolFormatter.parseAcknowledgement("OK", batch));
+        assertEquals(4, ProtocolFormatter.parseAcknowledgement("ack=4", batch));
+        assertEquals(4, ProtocolFormatter.parseAcknowledgement("OK\r\nack=4\r\n", batch));
+        assertEquals(10, ProtocolFormatter.parseAcknowledgement("ack=25", batch));
+        assertEquals(0, ProtocolFormatter.parseAcknowledgement("ack=-1", batch));
+        assertEquals(6, ProtocolFormatter.parseAcknowledgement("ack_time=5500", batch));
+        assertEquals(0, ProtocolFormatter.parseAcknowledgement("ack_time=-1", batch));
+        assertEquals(-1, ProtocolFormatter.parseAcknowledgement("ack=many", batch));
 
     }
 
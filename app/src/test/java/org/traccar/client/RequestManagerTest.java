@@ -6,6 +6,8 @@ import org.junit.runner.RunWith;
 import org.robolectric.RobolectricGradleTestRunner;
 import org.robolectric.annotation.Config;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 @RunWith(RobolectricGradleTestRunner.class)
@@ -19,4 +21,125 @@ public class RequestManagerTest {
 
     }
 
+    @Test
+    public void testKeepAlive() throws Exception {
+
+        TestHttpServer server = new TestHttpServer();
+        HttpConnection connection = new HttpConnection("127.0.0.1", server.getPort(), 1000);
+
+        assertEquals(200, connection.request("GET", "/?id=1", null, null));
+        assertEquals(200, connection.request("POST", "/", "text/plain", "id=2\nid=3".getBytes()));
+        assertEquals(200, connection.request("GET", "/?id=4", null, null));
+
+        assertEquals(1, server.getConnectionCount());
+        assertEquals(1, connection.getConnectCount());
+        assertEquals(2, connection.getReuseCount());
+        assertEquals("POST / HTTP/1.1", server.getRequests().get(1));
+        assertEquals("id=2\nid=3", server.getBodies().get(1));
+
+        connection.close();
+        server.close();
+
+    }
+
+    @Test
+    public void testReconnect() throws Exception {
+
+        TestHttpServer server = new TestHttpServer();
+        server.setRequestsPerConnection(1);
+
+        // the server drops idle connections, requests are repeated on a new one
+        assertTrue(RequestManager.sendRequest(server.getUrl() + "/?id=1"));
+        Thread.sleep(100);
+        assertTrue(RequestManager.sendRequest(server.getUrl() + "/?id=2"));
+        assertEquals(2, server.getConnectionCount());
+        assertEquals(2, server.getRequests().size());
+
+        server.setStatus(500);
+        assertFalse(RequestManager.sendRequest(server.getUrl() + "/?id=3"));
+
+        RequestManager.closeConnections();
+        server.close();
+
+    }
+
+    private static String createBody(int count) {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                body.append('\n');
+            }
+            body.append("id=123456789012345&timestamp=").append(1440000000000L + i * 1000)
+                    .append("&lat=").append(55.75 + i * 0.0001).append("&lon=").append(37.61 + i * 0.0001)
+                    .append("&hacc=5.0&speed=10.0&bearing=90.0&altitude=150.0&batt=87.5");
+        }
+        return body.toString();
+    }
+
+    @Test
+    public void testCompression() throws Exception {
+
+        TestHttpServer server = new TestHttpServer();
+        String body = createBody(500);
+
+        assertTrue(RequestManager.sendRequest(new Pair<>(server.getUrl() + "/", body), true));
+        assertEquals(body, server.getBodies().get(0));
+        assertEquals(1, server.getCompressedCount());
+        assertTrue(server.getReceivedBytes() * 4 < body.length());
+
+        RequestManager.closeConnections();
+        server.close();
+
+    }
+
+    @Test
+    public void testCompressionFallback() throws Exception {
+
+        TestHttpServer server = new TestHttpServer();
+        server.setCompressedStatus(415);
+        String body = createBody(10);
+
+        // rejected compressed request is repeated uncompressed, later ones are not compressed at all
+        assertTrue(RequestManager.sendRequest(new Pair<>(server.getUrl() + "/", body), true));
+        assertTrue(RequestManager.sendRequest(new Pair<>(server.getUrl() + "/", body), true));
+        assertEquals(3, server.getRequests().size());
+        assertEquals(1, server.getCompressedCount());
+        assertEquals(body, server.getBodies().get(2));
+
+        RequestManager.closeConnections();
+        server.close();
+
+    }
+
+    @Test
+    public void testCompressionBadRequest() throws Exception {
+
+        TestHttpServer server = new TestHttpServer();
+        server.setCompressedStatus(400);
+        String body = createBody(10);
+
+        // a bad request that goes away without compression blames the compression
+        assertTrue(RequestManager.sendRequest(new Pair<>(server.getUrl() + "/", body), true));
+        assertTrue(RequestManager.sendRequest(new Pair<>(server.getUrl() + "/", body), true));
+        assertEquals(3, server.getRequests().size());
+        assertEquals(1, server.getCompressedCount());
+
+        RequestManager.closeConnections();
+        server.close();
+
+        // one that stays has another cause, later requests are still compressed
+        server = new TestHttpServer();
+        server.setStatus(400);
+        assertFalse(RequestManager.sendRequest(new Pair<>(server.getUrl() + "/", body), true));
+        assertEquals(2, server.getRequests().size());
+        server.setStatus(200);
+        assertTrue(RequestManager.sendRequest(new Pair<>(server.getUrl() + "/", body), true));
+        assertEquals(3, server.getRequests().size());
+        assertEquals(2, server.getCompressedCount());
+
+        RequestManager.closeConnections();
+        server.close();
+
+    }
+
 }
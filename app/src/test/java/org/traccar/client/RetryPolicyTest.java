@@ -0,0 +1,192 @@
+package org.traccar.client;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class RetryPolicyTest {
+
+    private static class VirtualClock implements RetryPolicy.Clock {
+
+        private long time;
+
+        public void advance(long delay) {
+            time += delay;
+        }
+
+        @Override
+        public long elapsedRealtime() {
+            return time;
+        }
+
+    }
+
+    private static final long BASE_DELAY = 1000;
+    private static final long MAX_DELAY = 60 * 1000;
+    private static final int THRESHOLD = 10;
+    private static final long OPEN_TIME = 3600 * 1000;
+
+    private static RetryPolicy createPolicy(VirtualClock clock, long seed) {
+        return new RetryPolicy(BASE_DELAY, MAX_DELAY, THRESHOLD, OPEN_TIME, new Random(seed), clock);
+    }
+
+    @Test
+    public void testBackoff() throws Exception {
+
+        VirtualClock clock = new VirtualClock();
+        for (int attempt = 1; attempt < THRESHOLD; attempt++) {
+            long cap = Math.min(MAX_DELAY, BASE_DELAY << (attempt - 1));
+            long max = 0;
+            // full jitter, delays spread over the whole range below the cap
+            for (long seed = 0; seed < 100; seed++) {
+                RetryPolicy policy = createPolicy(clock, seed);
+                long delay = 0;
+                for (int i = 0; i < attempt; i++) {
+                    delay = policy.onFailure(RetryPolicy.Failure.CONNECT);
+                }
+                assertTrue(delay >= 0 && delay < cap);
+                max = Math.max(max, delay);
+            }
+            assertTrue(max > cap / 2);
+        }
+
+        // server side failures back off from a longer base
+        RetryPolicy policy = createPolicy(clock, 1);
+        long total = 0;
+        for (int i = 0; i < 1000; i++) {
+            total += policy.onFailure(RetryPolicy.Failure.SERVER);
+            policy.onSuccess();
+        }
+        // uniform below twice the base delay
+        long mean = total / 1000;
+        assertTrue(mean > BASE_DELAY * 9 / 10 && mean < BASE_DELAY * 11 / 10);
+
+    }
+
+    @Test
+    public void testSpread() throws Exception {
+
+        // a fleet failing at the same moment retries at different moments
+        VirtualClock clock = new VirtualClock();
+        Set<Long> delays = new HashSet<>();
+        for (long seed = 0; seed < 50; seed++) {
+            RetryPolicy policy = createPolicy(clock, seed);
+            for (int i = 0; i < 5; i++) {
+                policy.onFailure(RetryPolicy.Failure.TIMEOUT);
+            }
+            delays.add(policy.onFailure(RetryPolicy.Failure.TIMEOUT) / 1000);
+        }
+        assertTrue(delays.size() > 40);
+
+    }
+
+    @Test
+    public void testCircuitBreaker() throws Exception {
+
+        VirtualClock clock = new VirtualClock();
+        RetryPolicy policy = createPolicy(clock, 1);
+
+        for (int i = 1; i < THRESHOLD; i++) {
+            assertTrue(policy.allowAttempt());
+            clock.advance(policy.onFailure(RetryPolicy.Failure.CONNECT));
+        }
+        assertFalse(policy.isOpen());
+
+        assertEquals(OPEN_TIME, policy.onFailure(RetryPolicy.Failure.CONNECT));
+        assertTrue(policy.isOpen());
+        assertFalse(policy.allowAttempt());
+        clock.advance(OPEN_TIME - 1);
+        assertFalse(policy.allowAttempt());
+
+        // one probe after the pause, another failure opens the circuit again
+        clock.advance(1);
+        assertTrue(policy.allowAttempt());
+        assertFalse(policy.allowAttempt());
+        assertEquals(OPEN_TIME, policy.onFailure(RetryPolicy.Failure.CONNECT));
+        assertFalse(policy.allowAttempt());
+
+        clock.advance(OPEN_TIME);
+        assertTrue(policy.allowAttempt());
+        policy.onSuccess();
+        assertFalse(policy.isOpen());
+        assertTrue(policy.allowAttempt());
+        assertTrue(policy.onFailure(RetryPolicy.Failure.CONNECT) < BASE_DELAY);
+
+        assertEquals(THRESHOLD + 2, policy.getFailureCount(RetryPolicy.Failure.CONNECT));
+
+    }
+
+    @Test
+    public void testConnectivityChange() throws Exception {
+
+        VirtualClock clock = new VirtualClock();
+        RetryPolicy policy = createPolicy(clock, 1);
+        for (int i = 0; i < THRESHOLD; i++) {
+            policy.onFailure(RetryPolicy.Failure.DNS);
+        }
+        assertFalse(policy.allowAttempt());
+
+        policy.onConnectivityChange();
+        assertTrue(policy.allowAttempt());
+        assertTrue(policy.onFailure(RetryPolicy.Failure.DNS) < BASE_DELAY * 3);
+
+    }
+
+    private static RetryPolicy.Failure classify(Transport transport) {
+        try {
+            transport.send(createBatch());
+            fail();
+            return null;
+        } catch (IOException error) {
+            return RetryPolicy.classify(error);
+        }
+    }
+
+    private static PositionBatch createBatch() {
+        PositionBatch batch = new PositionBatch();
+        batch.add(1, "123456789012345", 0, 1.5, -2.5, 10.0, 100.0, 0.0, 90.0, 50.0);
+        batch.add(2, "123456789012345", 1000, 1.5, -2.5, 10.0, 100.0, 0.0, 90.0, 50.0);
+        return batch;
+    }
+
+    @Test
+    public void testClassify() throws Exception {
+
+        assertEquals(RetryPolicy.Failure.DNS, RetryPolicy.classify(new UnknownHostException()));
+        assertEquals(RetryPolicy.Failure.CONNECT, RetryPolicy.classify(new ConnectException()));
+        assertEquals(RetryPolicy.Failure.TIMEOUT, RetryPolicy.classify(new SocketTimeoutException()));
+        assertEquals(RetryPolicy.Failure.SERVER, RetryPolicy.classify(new HttpStatusException(503)));
+        assertEquals(RetryPolicy.Failure.OTHER, RetryPolicy.classify(new HttpStatusException(404)));
+        assertEquals(RetryPolicy.Failure.OTHER, RetryPolicy.classify(new IOException()));
+
+        TestHttpServer server = new TestHttpServer();
+        server.setStatus(503);
+        assertEquals(RetryPolicy.Failure.SERVER, classify(new HttpTransport("127.0.0.1", server.getPort(), false)));
+        server.close();
+        RequestManager.closeConnections();
+
+        // nothing listens there, and unlike a freed ephemeral port a client socket never binds to it itself
+        int port = TestTcpServer.CLOSED_PORT;
+        assertEquals(RetryPolicy.Failure.CONNECT, classify(new HttpTransport("127.0.0.1", port, false)));
+        assertEquals(RetryPolicy.Failure.CONNECT, classify(new TcpTransport("127.0.0.1", port)));
+        assertEquals(RetryPolicy.Failure.DNS, classify(new TcpTransport("unknown.invalid", port)));
+
+    }
+
+}
@@ -0,0 +1,128 @@
+package org.traccar.client;
+
+import android.database.DatabaseUtils;
+import android.location.Location;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class StorageBudgetTest {
+
+    private static final int CHUNK_SIZE = 1000;
+
+    private static Position createPosition(int index) {
+        Location location = new Location("gps");
+        location.setLatitude(index * 0.0001);
+        location.setLongitude(index * 0.0001);
+        Position position = new Position("123456789012345", location, 50);
+        position.setTime(new Date(index * 1000L));
+        return position;
+    }
+
+    @Test
+    public void testDownsampling() throws Exception {
+
+        PositionBatch positions = new PositionBatch();
+        for (int i = 0; i < 10; i++) {
+            Position position = createPosition(i);
+            position.setId(i + 1);
+            positions.add(position);
+        }
+
+        EvictionPolicy policy = new DownsamplingEvictionPolicy(2);
+        assertEquals(8, policy.getWindow(4));
+
+        List<Long> evicted = new ArrayList<>();
+        policy.evict(positions, 4, evicted);
+
+        List<Long> expected = new ArrayList<>();
+        expected.add(2L);
+        expected.add(4L);
+        expected.add(6L);
+        expected.add(8L);
+        assertEquals(expected, evicted);
+
+    }
+
+    private static long getUsedBytes(DatabaseHelper databaseHelper) {
+        long pageCount = DatabaseUtils.longForQuery(databaseHelper.getReadableDatabase(), "PRAGMA page_count", null);
+        long freeCount = DatabaseUtils.longForQuery(databaseHelper.getReadableDatabase(), "PRAGMA freelist_count", null);
+        return (pageCount - freeCount) * getPageSize(databaseHelper);
+    }
+
+    private static long getPageSize(DatabaseHelper databaseHelper) {
+        return DatabaseUtils.longForQuery(databaseHelper.getReadableDatabase(), "PRAGMA page_size", null);
+    }
+
+    /**
+     * @return rows stored after every chunk
+     */
+    private long[] fill(DatabaseHelper databaseHelper, int firstChunk, int chunks) {
+        long[] counts = new long[chunks];
+        PositionBatch batch = new PositionBatch();
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            for (int i = 0; i < CHUNK_SIZE; i++) {
+                databaseHelper.insertPosition(createPosition((firstChunk + chunk) * CHUNK_SIZE + i));
+            }
+            databaseHelper.leasePositions(100, batch);
+            databaseHelper.releasePositions(batch);
+            counts[chunk] = DatabaseUtils.queryNumEntries(databaseHelper.getReadableDatabase(), "position");
+        }
+        return counts;
+    }
+
+    @Test
+    public void testRowBudget() throws Exception {
+
+        DatabaseHelper databaseHelper = new DatabaseHelper(RuntimeEnvironment.application);
+        databaseHelper.setStorageBudget(5000, Long.MAX_VALUE);
+
+        long[] counts = fill(databaseHelper, 0, 20);
+        long bytes = getUsedBytes(databaseHelper);
+        long[] laterCounts = fill(databaseHelper, 20, 20);
+
+        // latest positions are kept intact, oldest ones are thinned out
+        Position latest = databaseHelper.selectPosition();
+        assertEquals(40 * CHUNK_SIZE - 1, latest.getTime().getTime() / 1000);
+        PositionBatch oldest = new PositionBatch();
+        databaseHelper.leasePositions(2, oldest);
+        assertTrue(oldest.getTime(1) - oldest.getTime(0) > 1000);
+
+        // once the store is full, every chunk evicts about as much as it adds, so the rows and the
+        // file stay the same size however long it keeps filling
+        for (long count : counts) {
+            assertTrue(count <= 5000);
+        }
+        for (long count : laterCounts) {
+            assertTrue(count <= 5000);
+            assertTrue(count >= 5000 * 0.9 - CHUNK_SIZE);
+        }
+        assertTrue(getUsedBytes(databaseHelper) <= bytes + 16 * getPageSize(databaseHelper));
+
+    }
+
+    @Test
+    public void testByteBudget() throws Exception {
+
+        DatabaseHelper databaseHelper = new DatabaseHelper(RuntimeEnvironment.application);
+        databaseHelper.setStorageBudget(Integer.MAX_VALUE, 256 * 1024);
+
+        fill(databaseHelper, 0, 20);
+
+        assertTrue(getUsedBytes(databaseHelper) <= 256 * 1024 + 16 * getPageSize(databaseHelper));
+
+    }
+
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2015 Anton Tananaev (anton.tananaev@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Local stand-in for the tracking server. Accepts keep-alive HTTP/1.1 requests and records
+ * request lines and bodies.
+ */
+public class TestHttpServer {
+
+    private final ServerSocket serverSocket;
+    private final Thread thread;
+
+    private final AtomicInteger connectionCount = new AtomicInteger();
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+    private final List<String> bodies = Collections.synchronizedList(new ArrayList<String>());
+
+    private final AtomicInteger receivedBytes = new AtomicInteger();
+    private final AtomicInteger compressedCount = new AtomicInteger();
+
+    private volatile int status = 200;
+    private volatile String response = "OK";
+    // status answered to a compressed body, 0 to treat it like any other
+    private volatile int compressedStatus;
+    // close the connection after this many responses without announcing it, 0 to keep it open
+    private volatile int requestsPerConnection;
+    // pause before every response, in milliseconds
+    private volatile long delay;
+
+    public TestHttpServer() throws IOException {
+        serverSocket = new ServerSocket(0);
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public String getUrl() {
+        return "http://127.0.0.1:" + getPort();
+    }
+
+    public int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    public List<String> getRequests() {
+        return requests;
+    }
+
+    public List<String> getBodies() {
+        return bodies;
+    }
+
+    /**
+     * Body bytes as received on the wire, before decompression.
+     */
+    public int getReceivedBytes() {
+        return receivedBytes.get();
+    }
+
+    public int getCompressedCount() {
+        return compressedCount.get();
+    }
+
+    public void setCompressedStatus(int compressedStatus) {
+        this.compressedStatus = compressedStatus;
+    }
+
+    public void setStatus(int status) {
+        this.status = status;
+    }
+
+    public void setResponse(String response) {
+        this.response = response;
+    }
+
+    public void setRequestsPerConnection(int requestsPerConnection) {
+        this.requestsPerConnection = requestsPerConnection;
+    }
+
+    public void setDelay(long delay) {
+        this.delay = delay;
+    }
+
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+
+    private void acceptConnections() {
+        try {
+            while (true) {
+                final Socket socket = serverSocket.accept();
+                connectionCount.incrementAndGet();
+                Thread connectionThread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            handleConnection(socket);
+                        } catch (IOException error) {
+                            // connection dropped
+                        } finally {
+                            try {
+                                socket.close();
+                            } catch (IOException error) {
+                                // ignored
+                            }
+                        }
+                    }
+                });
+                connectionThread.setDaemon(true);
+                connectionThread.start();
+            }
+        } catch (IOException error) {
+            // server closed
+        }
+    }
+
+    private static String readLine(InputStream inputStream) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = inputStream.read()) != '\n') {
+            if (c < 0) {
+                return null;
+            }
+            if (c != '\r') {
+                line.append((char) c);
+            }
+        }
+        return line.toString();
+    }
+
+    private static void readFully(InputStream inputStream, OutputStream outputStream, int count) throws IOException {
+        byte[] buffer = new byte[1024];
+        while (count > 0) {
+            int read = inputStream.read(buffer, 0, Math.min(count, buffer.length));
+            if (read < 0) {
+                throw new EOFException();
+            }
+            outputStream.write(buffer, 0, read);
+            count -= read;
+        }
+    }
+
+    private static byte[] decompress(byte[] data) throws IOException {
+        InputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(data));
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = inputStream.read(buffer)) > 0) {
+            outputStream.write(buffer, 0, read);
+        }
+        return outputStream.toByteArray();
+    }
+
+    private void handleConnection(Socket socket) throws IOException {
+        InputStream inputStream = socket.getInputStream();
+        OutputStream outputStream = socket.getOutputStream();
+        int handled = 0;
+        String requestLine;
+        while ((requestLine = readLine(inputStream)) != null) {
+            int contentLength = 0;
+            boolean chunked = false;
+            boolean gzip = false;
+            String header;
+            while ((header = readLine(inputStream)) != null && !header.isEmpty()) {
+                String lowerCase = header.toLowerCase();
+                if (lowerCase.startsWith("content-length:")) {
+                    contentLength = Integer.parseInt(header.substring(15).trim());
+                } else if (lowerCase.equals("transfer-encoding: chunked")) {
+                    chunked = true;
+                } else if (lowerCase.equals("content-encoding: gzip")) {
+                    gzip = true;
+                }
+            }
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            if (chunked) {
+                int size;
+                while ((size = Integer.parseInt(readLine(inputStream), 16)) > 0) {
+                    readFully(inputStream, body, size);
+                    readLine(inputStream);
+                }
+                readLine(inputStream);
+            } else {
+                readFully(inputStream, body, contentLength);
+            }
+            receivedBytes.addAndGet(body.size());
+            byte[] content = body.toByteArray();
+            if (gzip) {
+                compressedCount.incrementAndGet();
+                content = decompress(content);
+            }
+            requests.add(requestLine);
+            bodies.add(new String(content, "US-ASCII"));
+
+            if (delay > 0) {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException error) {
+                    return;
+                }
+            }
+            int status = gzip && compressedStatus != 0 ? compressedStatus : this.status;
+            String response = this.response;
+            outputStream.write(("HTTP/1.1 " + status + " Status\r\n" +
+                    "Content-Length: " + response.length() + "\r\n\r\n" + response).getBytes("US-ASCII"));
+            outputStream.flush();
+
+            handled += 1;
+            if (requestsPerConnection > 0 && handled >= requestsPerConnection) {
+                return;
+            }
+        }
+    }
+
+}
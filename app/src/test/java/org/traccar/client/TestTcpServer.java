@@ -0,0 +1,161 @@
+/*
+ * Copyright 2015 Anton Tananaev (anton.tananaev@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.client;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local stand-in for a line based tracking server. Records every received line and answers it
+ * with an acknowledgement line. A rejected line ends the connection, the lines after it are not
+ * stored.
+ */
+public class TestTcpServer {
+
+    // privileged port expected to refuse connections
+    public static final int CLOSED_PORT = 1;
+
+    private final ServerSocket serverSocket;
+    private final Thread thread;
+
+    private final AtomicInteger connectionCount = new AtomicInteger();
+    private final List<String> frames = Collections.synchronizedList(new ArrayList<String>());
+
+    private volatile String ack = "OK";
+    // frames acknowledged before every further frame is rejected, -1 for no limit
+    private volatile int acceptedFrames = -1;
+    // close the connection after this many frames without acknowledging the last one, 0 to keep it open
+    private volatile int framesPerConnection;
+    // number of the received frame, counting from 1, that is rejected once, 0 for none
+    private volatile int rejectedFrame;
+    private final AtomicInteger receivedCount = new AtomicInteger();
+    // lines that were already waiting when the line before them was acknowledged
+    private final AtomicInteger pipelinedCount = new AtomicInteger();
+
+    public TestTcpServer() throws IOException {
+        serverSocket = new ServerSocket(0);
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    public List<String> getFrames() {
+        return frames;
+    }
+
+    public int getPipelinedCount() {
+        return pipelinedCount.get();
+    }
+
+    public void setAck(String ack) {
+        this.ack = ack;
+    }
+
+    public void setAcceptedFrames(int acceptedFrames) {
+        this.acceptedFrames = acceptedFrames;
+    }
+
+    public void setFramesPerConnection(int framesPerConnection) {
+        this.framesPerConnection = framesPerConnection;
+    }
+
+    public void setRejectedFrame(int rejectedFrame) {
+        this.rejectedFrame = rejectedFrame;
+    }
+
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+
+    private void acceptConnections() {
+        try {
+            while (true) {
+                final Socket socket = serverSocket.accept();
+                connectionCount.incrementAndGet();
+                Thread connectionThread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            handleConnection(socket);
+                        } catch (IOException error) {
+                            // connection dropped
+                        } finally {
+                            try {
+                                socket.close();
+                            } catch (IOException error) {
+                                // ignored
+                            }
+                        }
+                    }
+                });
+                connectionThread.setDaemon(true);
+                connectionThread.start();
+            }
+        } catch (IOException error) {
+            // server closed
+        }
+    }
+
+    private void handleConnection(Socket socket) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+        OutputStream outputStream = socket.getOutputStream();
+        int handled = 0;
+        String frame;
+        while ((frame = reader.readLine()) != null) {
+            handled += 1;
+            if (framesPerConnection > 0 && handled > framesPerConnection) {
+                return;
+            }
+            if (reader.ready()) {
+                pipelinedCount.incrementAndGet();
+            }
+            if (acceptedFrames >= 0 && frames.size() >= acceptedFrames
+                    || receivedCount.incrementAndGet() == rejectedFrame) {
+                outputStream.write("ERROR\n".getBytes("US-ASCII"));
+                outputStream.flush();
+                return;
+            }
+            frames.add(frame);
+            outputStream.write((ack + "\n").getBytes("US-ASCII"));
+            outputStream.flush();
+            if (!ack.equals("OK")) {
+                return;
+            }
+        }
+    }
+
+}
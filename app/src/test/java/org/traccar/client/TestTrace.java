@@ -0,0 +1,96 @@
+/*
+ * Copyright 2015 Anton Tananaev (anton.tananaev@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.client;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Multi-hour position trace from the test resources: parked, city drive, walk and highway drive,
+ * one fix every 5 seconds with ordinary GPS noise and a few outliers.
+ */
+public final class TestTrace {
+
+    public static final String DEVICE_ID = "123456789012345";
+
+    private TestTrace() {
+    }
+
+    public static String readResource(String name) throws IOException {
+        InputStream inputStream = TestTrace.class.getClassLoader().getResourceAsStream(name);
+        if (inputStream == null) {
+            throw new IOException("Missing resource " + name);
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, "UTF-8"));
+        try {
+            StringBuilder content = new StringBuilder();
+            char[] buffer = new char[8192];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                content.append(buffer, 0, read);
+            }
+            return content.toString();
+        } finally {
+            reader.close();
+        }
+    }
+
+    public static PositionBatch load() throws IOException {
+        PositionBatch batch = new PositionBatch();
+        long id = 1;
+        for (String line : readResource("trace.csv").split("\n")) {
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] values = line.split(",");
+            batch.add(id++, DEVICE_ID, Long.parseLong(values[0]),
+                    Double.parseDouble(values[1]), Double.parseDouble(values[2]), Double.parseDouble(values[3]),
+                    Double.parseDouble(values[4]), Double.parseDouble(values[5]), Double.parseDouble(values[6]),
+                    Double.parseDouble(values[7]));
+        }
+        return batch;
+    }
+
+    public static Position getPosition(PositionBatch batch, int index) {
+        Position position = new Position();
+        position.setId(batch.getId(index));
+        position.setDeviceId(batch.getDeviceId(index));
+        position.setTime(new Date(batch.getTime(index)));
+        position.setLatitude(batch.getLatitude(index));
+        position.setLongitude(batch.getLongitude(index));
+        position.setHorizontalAccuracy(batch.getHorizontalAccuracy(index));
+        position.setAltitude(batch.getAltitude(index));
+        position.setSpeed(batch.getSpeed(index));
+        position.setCourse(batch.getCourse(index));
+        position.setBattery(batch.getBattery(index));
+        return position;
+    }
+
+    public static List<Position> loadPositions() throws IOException {
+        PositionBatch batch = load();
+        List<Position> positions = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            positions.add(getPosition(batch, i));
+        }
+        return positions;
+    }
+
+}
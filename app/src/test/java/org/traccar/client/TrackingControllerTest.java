@@ -0,0 +1,449 @@
+package org.traccar.client;
+
+import android.content.Intent;
+import android.location.Location;
+import android.os.BatteryManager;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.internal.ShadowExtractor;
+import org.robolectric.shadows.ShadowLooper;
+import org.robolectric.util.Scheduler;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class TrackingControllerTest {
+
+    // Keeps positions in memory and records the operations in the order they are run
+    private static class MemoryStore implements PositionStore {
+
+        private final List<String> operations = Collections.synchronizedList(new ArrayList<String>());
+        private final List<Position> positions = new ArrayList<>();
+        private final List<Long> leased = new ArrayList<>();
+        private long nextId = 1;
+
+        @Override
+        public synchronized void insertPosition(Position position) {
+            position.setId(nextId++);
+            positions.add(position);
+            operations.add("insert " + position.getTime().getTime());
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public synchronized Position selectPosition() {
+            return positions.isEmpty() ? null : positions.get(positions.size() - 1);
+        }
+
+        @Override
+        public synchronized int leasePositions(int limit, PositionBatch batch) {
+            batch.clear();
+            for (Position position : positions) {
+                if (batch.size() < limit && !leased.contains(position.getId())) {
+                    leased.add(position.getId());
+                    batch.add(position);
+                }
+            }
+            return batch.size();
+        }
+
+        @Override
+        public synchronized void releasePositions(PositionBatch batch) {
+            for (int i = 0; i < batch.size(); i++) {
+                leased.remove(batch.getId(i));
+            }
+        }
+
+        @Override
+        public void deletePosition(long id) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public synchronized void deletePositions(PositionBatch batch) {
+            for (int i = 0; i < batch.size(); i++) {
+                for (int j = 0; j < positions.size(); j++) {
+                    if (positions.get(j).getId() == batch.getId(i)) {
+                        positions.remove(j);
+                    }
+                }
+                leased.remove(batch.getId(i));
+            }
+            operations.add("delete " + batch.getFirstId() + "-" + batch.getLastId());
+        }
+
+        @Override
+        public void close() {
+            operations.add("close");
+        }
+
+    }
+
+    private static class NullTransport implements Transport {
+
+        @Override
+        public int send(PositionBatch batch) throws IOException {
+            return 0;
+        }
+
+        @Override
+        public int sendHeartbeat(Position position) throws IOException {
+            return 0;
+        }
+
+        @Override
+        public void close() {
+        }
+
+    }
+
+    // Holds every request until the test completes it, in the order the requests were made
+    private static class ControlledTransport implements Transport {
+
+        private static class Call {
+
+            private final PositionBatch batch = new PositionBatch();
+            private final CountDownLatch done = new CountDownLatch(1);
+            private volatile int accepted = -1;
+            private volatile RuntimeException error;
+
+            public void complete() {
+                done.countDown();
+            }
+
+            public void fail(RuntimeException error) {
+                this.error = error;
+                done.countDown();
+            }
+
+            public void acknowledge(int accepted) {
+                this.accepted = accepted;
+                done.countDown();
+            }
+
+        }
+
+        private final BlockingQueue<Call> calls = new LinkedBlockingQueue<>();
+        private final BlockingQueue<Position> heartbeats = new LinkedBlockingQueue<>();
+
+        @Override
+        public int send(PositionBatch batch) throws IOException {
+            Call call = new Call();
+            for (int i = 0; i < batch.size(); i++) {
+                call.batch.add(batch, i);
+            }
+            calls.add(call);
+            try {
+                call.done.await();
+            } catch (InterruptedException error) {
+                throw new InterruptedIOException();
+            }
+            if (call.error != null) {
+                throw call.error;
+            }
+            if (call.accepted >= 0) {
+                throw new PartialAcknowledgementException(call.accepted, batch.size());
+            }
+            return 0;
+        }
+
+        @Override
+        public int sendHeartbeat(Position position) throws IOException {
+            heartbeats.add(position);
+            return 0;
+        }
+
+        @Override
+        public void close() {
+        }
+
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        Intent batteryIntent = new Intent(Intent.ACTION_BATTERY_CHANGED);
+        batteryIntent.putExtra(BatteryManager.EXTRA_LEVEL, 50);
+        batteryIntent.putExtra(BatteryManager.EXTRA_SCALE, 100);
+        RuntimeEnvironment.application.sendStickyBroadcast(batteryIntent);
+
+        PreferenceManager.getDefaultSharedPreferences(RuntimeEnvironment.application).edit()
+                .putString(MainActivity.KEY_DEVICE, TestTrace.DEVICE_ID)
+                .putString(MainActivity.KEY_ADDRESS, "localhost")
+                .putString(MainActivity.KEY_PORT, "5055")
+                .putString(MainActivity.KEY_PROVIDER, "gps")
+                .putString(MainActivity.KEY_INTERVAL, "1")
+                .putString(MainActivity.KEY_REPORT_INTERVAL, "0")
+                .putString(MainActivity.KEY_BATCH_REPORT_NUM, "10")
+                .putBoolean(MainActivity.KEY_SAVE_TRAFFIC, false)
+                .commit();
+    }
+
+    private TrackingController controller;
+    private Scheduler scheduler;
+
+    private void createController(PositionStore store, Transport transport) {
+        controller = new TrackingController(RuntimeEnvironment.application, store, transport);
+        scheduler = ((ShadowLooper) ShadowExtractor.extract(controller.getLooper())).getScheduler();
+    }
+
+    /**
+     * Runs the tasks that are due on the tracking thread and the results of the store. Robolectric
+     * does not loop background threads, so they run on the test thread.
+     */
+    private void runTasks() {
+        ShadowLooper.runUiThreadTasks();
+        scheduler.advanceTo(SystemClock.uptimeMillis());
+    }
+
+    private void stop() throws InterruptedException {
+        Thread stopper = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                controller.stop();
+            }
+        });
+        stopper.start();
+        while (stopper.isAlive()) {
+            runTasks();
+            Thread.sleep(1);
+        }
+    }
+
+    private ControlledTransport.Call nextCall(ControlledTransport transport) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        ControlledTransport.Call call;
+        while ((call = transport.calls.poll(1, TimeUnit.MILLISECONDS)) == null) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            runTasks();
+        }
+        return call;
+    }
+
+    private static List<String> getDeletes(MemoryStore store) {
+        List<String> deletes = new ArrayList<>();
+        synchronized (store.operations) {
+            for (String operation : store.operations) {
+                if (operation.startsWith("delete")) {
+                    deletes.add(operation);
+                }
+            }
+        }
+        return deletes;
+    }
+
+    private void awaitDeletes(MemoryStore store, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (getDeletes(store).size() < count && System.currentTimeMillis() < deadline) {
+            runTasks();
+            Thread.sleep(1);
+        }
+        // nothing else is deleted in the meantime
+        Thread.sleep(50);
+        runTasks();
+        assertEquals(count, getDeletes(store).size());
+    }
+
+    private static MemoryStore createStore(int count) {
+        MemoryStore store = new MemoryStore();
+        for (int i = 1; i <= count; i++) {
+            Position position = new Position();
+            position.setDeviceId(TestTrace.DEVICE_ID);
+            position.setTime(new Date(i * 1000L));
+            store.insertPosition(position);
+        }
+        return store;
+    }
+
+    @Test
+    public void testWindow() throws Exception {
+
+        PreferenceManager.getDefaultSharedPreferences(RuntimeEnvironment.application).edit()
+                .putString(MainActivity.KEY_BATCH_REPORT_NUM, "2")
+                .putString(MainActivity.KEY_UPLOAD_WINDOW, "3")
+                .commit();
+        MemoryStore store = createStore(8);
+        ControlledTransport transport = new ControlledTransport();
+        createController(store, transport);
+        controller.start();
+
+        // the backlog fills the window, all of it is in flight at once
+        ControlledTransport.Call first = nextCall(transport);
+        ControlledTransport.Call second = nextCall(transport);
+        ControlledTransport.Call third = nextCall(transport);
+        Thread.sleep(50);
+        runTasks();
+        assertTrue(transport.calls.isEmpty());
+
+        // later uploads finishing first wait for the first one
+        third.complete();
+        second.complete();
+        awaitDeletes(store, 0);
+
+        first.complete();
+        awaitDeletes(store, 3);
+        List<String> expected = new ArrayList<>();
+        expected.add("delete 1-2");
+        expected.add("delete 3-4");
+        expected.add("delete 5-6");
+        assertEquals(expected, getDeletes(store));
+
+        // the free window takes the rest of the backlog
+        ControlledTransport.Call fourth = nextCall(transport);
+        assertEquals(7, fourth.batch.getFirstId());
+        fourth.complete();
+        awaitDeletes(store, 4);
+        stop();
+
+    }
+
+    @Test
+    public void testPartialAcknowledgement() throws Exception {
+
+        PreferenceManager.getDefaultSharedPreferences(RuntimeEnvironment.application).edit()
+                .putString(MainActivity.KEY_BATCH_REPORT_NUM, "2")
+                .putString(MainActivity.KEY_UPLOAD_WINDOW, "3")
+                .commit();
+        MemoryStore store = createStore(6);
+        ControlledTransport transport = new ControlledTransport();
+        createController(store, transport);
+        controller.start();
+
+        ControlledTransport.Call first = nextCall(transport);
+        ControlledTransport.Call second = nextCall(transport);
+        ControlledTransport.Call third = nextCall(transport);
+        assertEquals(3, second.batch.getFirstId());
+
+        // the acknowledged head waits for the first upload, the rest is sent again
+        second.acknowledge(1);
+        ControlledTransport.Call rest = nextCall(transport);
+        assertEquals(1, rest.batch.size());
+        assertEquals(4, rest.batch.getFirstId());
+        awaitDeletes(store, 0);
+
+        first.complete();
+        awaitDeletes(store, 2);
+        third.complete();
+        awaitDeletes(store, 2);
+        rest.complete();
+        awaitDeletes(store, 4);
+
+        List<String> expected = new ArrayList<>();
+        expected.add("delete 1-2");
+        expected.add("delete 3-3");
+        expected.add("delete 4-4");
+        expected.add("delete 5-6");
+        assertEquals(expected, getDeletes(store));
+        stop();
+
+    }
+
+    @Test
+    public void testRuntimeException() throws Exception {
+
+        MemoryStore store = createStore(3);
+        ControlledTransport transport = new ControlledTransport();
+        createController(store, transport);
+        controller.start();
+
+        ControlledTransport.Call first = nextCall(transport);
+        first.fail(new NumberFormatException());
+        awaitDeletes(store, 0);
+
+        // the failed batch is retried after the backoff instead of holding its window slot
+        scheduler.advanceBy(RetryPolicy.DEFAULT_MAX_DELAY);
+        ControlledTransport.Call retry = nextCall(transport);
+        assertEquals(first.batch.getFirstId(), retry.batch.getFirstId());
+        assertEquals(first.batch.size(), retry.batch.size());
+        retry.complete();
+        awaitDeletes(store, 1);
+        assertEquals("delete 1-3", getDeletes(store).get(0));
+        stop();
+
+    }
+
+    @Test
+    public void testHeartbeat() throws Exception {
+
+        MemoryStore store = new MemoryStore();
+        ControlledTransport transport = new ControlledTransport();
+        createController(store, transport);
+        controller.start();
+        runTasks();
+
+        // a parked heartbeat goes to the server as it is and never into the store
+        Position heartbeat = new Position();
+        heartbeat.setDeviceId(TestTrace.DEVICE_ID);
+        heartbeat.setTime(new Date(1000));
+        heartbeat.setHeartbeat(true);
+        controller.onPositionUpdate(heartbeat);
+        assertSame(heartbeat, transport.heartbeats.poll(5, TimeUnit.SECONDS));
+        Thread.sleep(50);
+        runTasks();
+        assertTrue(store.operations.isEmpty());
+        assertTrue(transport.calls.isEmpty());
+        stop();
+
+    }
+
+    @Test
+    public void testStopStoresHeldBackFix() throws Exception {
+
+        PreferenceManager.getDefaultSharedPreferences(RuntimeEnvironment.application).edit()
+                .putString(MainActivity.KEY_SIMPLIFY_TOLERANCE, "20")
+                .commit();
+        MemoryStore store = new MemoryStore();
+        createController(store, new NullTransport());
+        controller.start();
+        runTasks();
+
+        // a straight line, the simplifier keeps the first fix and holds back the rest
+        for (int i = 0; i < 5; i++) {
+            Location location = new Location("gps");
+            location.setTime(1000000 + i * 10000);
+            location.setLatitude(59.43 + i * 0.001);
+            location.setLongitude(24.75);
+            location.setAccuracy(10);
+            controller.getPositionProvider().updateLocation(location);
+            runTasks();
+        }
+        stop();
+
+        List<String> inserts = new ArrayList<>();
+        for (String operation : store.operations) {
+            if (operation.startsWith("insert")) {
+                inserts.add(operation);
+            }
+        }
+        List<String> expected = new ArrayList<>();
+        expected.add("insert 1000000");
+        expected.add("insert 1040000");
+        assertEquals(expected, inserts);
+        assertEquals("close", store.operations.get(store.operations.size() - 1));
+
+    }
+
+}
@@ -0,0 +1,155 @@
+package org.traccar.client;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class TrajectorySimplifierTest {
+
+    private static class Recorder implements PositionProvider.PositionListener {
+
+        private final List<Position> positions = new ArrayList<>();
+
+        @Override
+        public void onPositionUpdate(Position position) {
+            positions.add(position);
+        }
+
+    }
+
+    private static final double METERS_PER_DEGREE = Math.toRadians(6371000);
+
+    private static Position createPosition(int index, double north, double east) {
+        Position position = new Position();
+        position.setDeviceId(TestTrace.DEVICE_ID);
+        position.setTime(new Date(index * 5000L));
+        position.setLatitude(north / METERS_PER_DEGREE);
+        position.setLongitude(east / METERS_PER_DEGREE);
+        return position;
+    }
+
+    /**
+     * Distance from a fix to the line between the kept fixes around it.
+     */
+    private static double error(Position start, Position end, Position position) {
+        double scale = Math.cos(Math.toRadians(start.getLatitude())) * METERS_PER_DEGREE;
+        return TrajectorySimplifier.distanceToSegment(
+                (position.getLongitude() - start.getLongitude()) * scale,
+                (position.getLatitude() - start.getLatitude()) * METERS_PER_DEGREE,
+                (end.getLongitude() - start.getLongitude()) * scale,
+                (end.getLatitude() - start.getLatitude()) * METERS_PER_DEGREE);
+    }
+
+    private static double maxError(List<Position> original, List<Position> kept) {
+        double max = 0;
+        int segment = 0;
+        for (Position position : original) {
+            while (kept.get(segment + 1).getTime().getTime() < position.getTime().getTime()) {
+                segment += 1;
+            }
+            max = Math.max(max, error(kept.get(segment), kept.get(segment + 1), position));
+        }
+        return max;
+    }
+
+    @Test
+    public void testTurn() throws Exception {
+
+        Recorder recorder = new Recorder();
+        TrajectorySimplifier simplifier = new TrajectorySimplifier(recorder, 5, 100);
+        List<Position> original = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            original.add(createPosition(i, i * 10 + (i % 2) * 2, 0));
+        }
+        for (int i = 1; i <= 20; i++) {
+            original.add(createPosition(19 + i, 190, i * 10 + (i % 2) * 2));
+        }
+        for (Position position : original) {
+            simplifier.onPositionUpdate(position);
+        }
+        simplifier.flush();
+
+        // start, corner and end
+        assertEquals(3, recorder.positions.size());
+        assertSame(original.get(0), recorder.positions.get(0));
+        assertSame(original.get(19), recorder.positions.get(1));
+        assertSame(original.get(original.size() - 1), recorder.positions.get(2));
+        assertTrue(maxError(original, recorder.positions) <= 5);
+
+    }
+
+    @Test
+    public void testLookAhead() throws Exception {
+
+        Recorder recorder = new Recorder();
+        TrajectorySimplifier simplifier = new TrajectorySimplifier(recorder, 5, 10);
+        for (int i = 0; i < 100; i++) {
+            simplifier.onPositionUpdate(createPosition(i, i * 10, 0));
+        }
+
+        // a straight line still gets a fix every window, nothing is held back longer
+        assertEquals(10, recorder.positions.size());
+        assertEquals(90 * 5000L, recorder.positions.get(9).getTime().getTime());
+        assertEquals(100, simplifier.getReceivedCount());
+        assertEquals(10, simplifier.getKeptCount());
+
+    }
+
+    @Test
+    public void testHeartbeat() throws Exception {
+
+        Recorder recorder = new Recorder();
+        TrajectorySimplifier simplifier = new TrajectorySimplifier(recorder, 5, 100);
+        for (int i = 0; i < 10; i++) {
+            simplifier.onPositionUpdate(createPosition(i, i * 10, 0));
+        }
+        Position heartbeat = createPosition(30, 90, 0);
+        heartbeat.setHeartbeat(true);
+        simplifier.onPositionUpdate(heartbeat);
+
+        // the heartbeat is not held back, nor is the fix before it
+        assertEquals(3, recorder.positions.size());
+        assertEquals(9 * 5000L, recorder.positions.get(1).getTime().getTime());
+        assertSame(heartbeat, recorder.positions.get(2));
+
+    }
+
+    @Test
+    public void testTrace() throws Exception {
+
+        List<Position> original = TestTrace.loadPositions();
+        for (double tolerance : new double[] { 5, 10, 25 }) {
+            Recorder recorder = new Recorder();
+            TrajectorySimplifier simplifier = new TrajectorySimplifier(
+                    recorder, tolerance, TrajectorySimplifier.DEFAULT_LOOK_AHEAD);
+            for (Position position : original) {
+                simplifier.onPositionUpdate(position);
+            }
+            simplifier.flush();
+
+            List<Position> kept = recorder.positions;
+            double error = maxError(original, kept);
+
+            assertTrue(error <= tolerance + 0.01);
+            assertSame(original.get(original.size() - 1), kept.get(kept.size() - 1));
+            assertTrue(kept.size() >= original.size() / TrajectorySimplifier.DEFAULT_LOOK_AHEAD);
+            if (tolerance >= 10) {
+                // parked noise and straight roads collapse, a 10 m corridor keeps well under a third
+                assertTrue(kept.size() < original.size() / 3);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,352 @@
+package org.traccar.client;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class TransportTest {
+
+    private static PositionBatch createBatch(int first, int count) {
+        PositionBatch batch = new PositionBatch();
+        for (int i = first; i < first + count; i++) {
+            batch.add(i, "123456789012345", i * 1000L, 1.5, -2.5, 10.0, 100.0, 0.0, 90.0, 50.0);
+        }
+        return batch;
+    }
+
+    private static String formatFrame(PositionBatch batch, int index) {
+        AsciiBuffer buffer = new AsciiBuffer();
+        TcpTransport.appendFrame(buffer, batch, index);
+        return buffer.toString();
+    }
+
+    private static void assertFails(Transport transport, PositionBatch batch) {
+        try {
+            transport.send(batch);
+            fail();
+        } catch (IOException expected) {
+            // batch is sent again later
+        }
+    }
+
+    @Test
+    public void testHttp() throws Exception {
+
+        TestHttpServer server = new TestHttpServer();
+        Transport transport = new HttpTransport("127.0.0.1", server.getPort(), false);
+
+        int bytes = transport.send(createBatch(1, 5));
+        assertEquals(server.getUrl().length() + 1 + server.getBodies().get(0).length(), bytes);
+        transport.send(createBatch(6, 1));
+        assertEquals(2, server.getRequests().size());
+        assertEquals(5, server.getBodies().get(0).split("\n").length);
+
+        server.setStatus(500);
+        assertFails(transport, createBatch(7, 5));
+
+        transport.close();
+        server.close();
+
+    }
+
+    private static Position createHeartbeat() {
+        Position position = new Position();
+        position.setDeviceId("123456789012345");
+        position.setTime(new Date(1000));
+        position.setLatitude(1.5);
+        position.setLongitude(-2.5);
+        position.setHorizontalAccuracy(10.0);
+        position.setSpeed(0.0);
+        position.setBattery(50.0);
+        position.setHeartbeat(true);
+        return position;
+    }
+
+    @Test
+    public void testHttpHeartbeat() throws Exception {
+
+        TestHttpServer server = new TestHttpServer();
+        Transport transport = new HttpTransport("127.0.0.1", server.getPort(), false);
+
+        // only the parked location and battery, marked so the server does not take it for a fix
+        transport.sendHeartbeat(createHeartbeat());
+        assertEquals("GET /?id=123456789012345&timestamp=1000&lat=1.5&lon=-2.5&batt=50.0&heartbeat=true HTTP/1.1",
+                server.getRequests().get(0));
+
+        transport.close();
+        server.close();
+
+    }
+
+    @Test
+    public void testHttpTimeout() throws Exception {
+
+        TestHttpServer server = new TestHttpServer();
+        HttpConnection connection = new HttpConnection("127.0.0.1", server.getPort(), 200);
+        connection.request("POST", "/", "text/plain", new byte[] { '1' });
+
+        // the server got the request on the reused connection, it must not get it twice
+        server.setDelay(1000);
+        try {
+            connection.request("POST", "/", "text/plain", new byte[] { '2' });
+            fail();
+        } catch (SocketTimeoutException expected) {
+            // batch is sent again later
+        }
+        Thread.sleep(1500);
+        assertEquals(2, server.getRequests().size());
+        assertEquals(1, server.getConnectionCount());
+
+        connection.close();
+        server.close();
+
+    }
+
+    /**
+     * Answers one request with the given bytes and keeps the connection open until the client closes it.
+     *
+     * @return the error of the request
+     */
+    private static IOException requestMalformed(String response) throws Exception {
+        final ServerSocket serverSocket = new ServerSocket(0);
+        final byte[] data = response.getBytes("US-ASCII");
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Socket socket = serverSocket.accept();
+                    InputStream inputStream = socket.getInputStream();
+                    inputStream.read(new byte[4096]);
+                    socket.getOutputStream().write(data);
+                    while (inputStream.read() >= 0) {
+                        // wait for the client
+                    }
+                    socket.close();
+                } catch (IOException error) {
+                    // client gone
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+
+        HttpConnection connection = new HttpConnection("127.0.0.1", serverSocket.getLocalPort(), 2000);
+        try {
+            connection.request("POST", "/", "text/plain", new byte[] { '1' });
+            fail();
+            return null;
+        } catch (IOException error) {
+            return error;
+        } finally {
+            connection.close();
+            serverSocket.close();
+        }
+    }
+
+    @Test
+    public void testHttpMalformed() throws Exception {
+
+        String[] responses = {
+                "HTTP/1.1 2x0 OK\r\n\r\n",
+                "HTTP/1.1 20\r\n\r\n",
+                "HTTP/1.1 200 OK\r\nContent-Length: abc\r\n\r\n",
+                "HTTP/1.1 200 OK\r\nContent-Length: -1\r\n\r\n",
+                "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\nzz\r\n",
+        };
+        for (String response : responses) {
+            assertEquals(response, "Invalid response", requestMalformed(response).getMessage());
+        }
+
+        // an endless line fails at once instead of growing until the read times out
+        StringBuilder response = new StringBuilder("HTTP/1.1 200 OK\r\nServer: ");
+        for (int i = 0; i < 100000; i++) {
+            response.append('a');
+        }
+        assertEquals("Invalid response", requestMalformed(response.toString()).getMessage());
+
+    }
+
+    @Test
+    public void testTcp() throws Exception {
+
+        TestTcpServer server = new TestTcpServer();
+        Transport transport = new TcpTransport("127.0.0.1", server.getPort());
+
+        int bytes = transport.send(createBatch(1, 5));
+        transport.send(createBatch(6, 1));
+        transport.send(createBatch(7, 50));
+
+        // one connection, one line per position
+        assertEquals(1, server.getConnectionCount());
+        assertEquals(56, server.getFrames().size());
+        assertEquals("123456789012345,1000,1.5,-2.5,10.0,0.0,90.0,100.0,50.0", server.getFrames().get(0));
+        int length = 0;
+        for (int i = 0; i < 5; i++) {
+            length += server.getFrames().get(i).length() + 1;
+        }
+        assertEquals(length, bytes);
+
+        // lines of a batch do not wait for the acknowledgement of the line before them
+        assertTrue(server.getPipelinedCount() > 0);
+
+        transport.close();
+        server.close();
+
+    }
+
+    @Test
+    public void testTcpHeartbeat() throws Exception {
+
+        TestTcpServer server = new TestTcpServer();
+        Transport transport = new TcpTransport("127.0.0.1", server.getPort());
+
+        transport.send(createBatch(1, 1));
+        int bytes = transport.sendHeartbeat(createHeartbeat());
+        assertEquals(2, server.getFrames().size());
+        assertEquals("123456789012345,1000,1.5,-2.5,50.0,heartbeat", server.getFrames().get(1));
+        assertEquals(server.getFrames().get(1).length() + 1, bytes);
+        assertEquals(1, server.getConnectionCount());
+
+        transport.close();
+        server.close();
+
+    }
+
+    @Test
+    public void testTcpReconnect() throws Exception {
+
+        TestTcpServer server = new TestTcpServer();
+        server.setFramesPerConnection(5);
+        Transport transport = new TcpTransport("127.0.0.1", server.getPort());
+
+        transport.send(createBatch(1, 5));
+
+        // closed idle connection is replaced without failing the batch
+        transport.send(createBatch(6, 5));
+        assertEquals(2, server.getConnectionCount());
+
+        // connection lost in the middle of a batch fails it
+        assertFails(transport, createBatch(11, 10));
+
+        transport.close();
+        server.close();
+
+    }
+
+    @Test
+    public void testTcpReject() throws Exception {
+
+        TestTcpServer server = new TestTcpServer();
+        server.setAck("ERROR");
+        Transport transport = new TcpTransport("127.0.0.1", server.getPort());
+
+        assertFails(transport, createBatch(1, 5));
+
+        server.setAck("OK");
+        transport.send(createBatch(1, 5));
+        assertEquals(2, server.getConnectionCount());
+
+        transport.close();
+        server.close();
+
+    }
+
+    @Test
+    public void testTcpUnreachable() throws Exception {
+
+        Transport transport = new TcpTransport("127.0.0.1", TestTcpServer.CLOSED_PORT);
+        assertFails(transport, createBatch(1, 5));
+        transport.close();
+
+    }
+
+    private static int getAccepted(Transport transport, PositionBatch batch) {
+        try {
+            transport.send(batch);
+            fail();
+            return -1;
+        } catch (PartialAcknowledgementException error) {
+            return error.getAccepted();
+        } catch (IOException error) {
+            fail();
+            return -1;
+        }
+    }
+
+    @Test
+    public void testHttpPartial() throws Exception {
+
+        TestHttpServer server = new TestHttpServer();
+        Transport transport = new HttpTransport("127.0.0.1", server.getPort(), false);
+
+        server.setResponse("ack=3");
+        assertEquals(3, getAccepted(transport, createBatch(1, 5)));
+        server.setResponse("ack_time=" + 3000);
+        assertEquals(3, getAccepted(transport, createBatch(1, 5)));
+        server.setResponse("ack=0");
+        assertEquals(0, getAccepted(transport, createBatch(1, 5)));
+
+        // a full acknowledgement or none at all accepts the batch
+        server.setResponse("ack=5");
+        transport.send(createBatch(1, 5));
+        server.setResponse("OK");
+        transport.send(createBatch(1, 5));
+
+        transport.close();
+        server.close();
+
+    }
+
+    @Test
+    public void testTcpPartial() throws Exception {
+
+        TestTcpServer server = new TestTcpServer();
+        server.setAcceptedFrames(7);
+        Transport transport = new TcpTransport("127.0.0.1", server.getPort());
+
+        transport.send(createBatch(1, 5));
+        assertEquals(2, getAccepted(transport, createBatch(6, 5)));
+        assertEquals(7, server.getFrames().size());
+
+        transport.close();
+        server.close();
+
+    }
+
+    @Test
+    public void testTcpRejectOne() throws Exception {
+
+        TestTcpServer server = new TestTcpServer();
+        server.setRejectedFrame(3);
+        Transport transport = new TcpTransport("127.0.0.1", server.getPort());
+
+        // lines after a rejected one are discarded with the connection, sending the rest again stores each once
+        assertEquals(2, getAccepted(transport, createBatch(1, 5)));
+        assertEquals(2, server.getFrames().size());
+        transport.send(createBatch(3, 3));
+        assertEquals(5, server.getFrames().size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(formatFrame(createBatch(i + 1, 1), 0), server.getFrames().get(i));
+        }
+        assertEquals(2, server.getConnectionCount());
+
+        transport.close();
+        server.close();
+
+    }
+
+}